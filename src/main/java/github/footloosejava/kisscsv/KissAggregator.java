@@ -0,0 +1,450 @@
+package github.footloosejava.kisscsv;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Groups records by a key column, keeping the count of records and the sum, minimum
+ * and maximum of a value column for each group.
+ * <p>
+ * No String is made for a record. Keys are hashed straight from the parsed field into
+ * an open addressing table, and a group's key is copied once, when the group is added,
+ * into a shared char array. The accumulators are primitive arrays indexed by group.
+ * Groups are kept in the order their keys first appear.
+ * <p>
+ * While every value of a group is an integer and their sum fits a long, the sum,
+ * minimum and maximum are also kept as longs, so they stay exact past 2^53.
+ * <p>
+ * A file can be aggregated in parallel. It is cut into chunks at record boundaries,
+ * each chunk is parsed and aggregated on its own, and the partial results are merged.
+ */
+public final class KissAggregator {
+
+    /**
+     * The value column to use to only count records.
+     */
+    public static final int NO_VALUE = -1;
+    public static final int DEFAULT_CHUNK_SIZE = KissChunker.DEFAULT_CHUNK_SIZE;
+
+    private final KissParser parser;
+    private final int keyColumn;
+    private final int valueColumn;
+    private final KissFieldVisitor visitor = this::visit;
+
+    // table holds group + 1, or 0 for an empty slot
+    private int[] table = new int[64];
+    private int[] hashes = new int[32];
+    // group g's key is keyChars from keyOffsets[g] to keyOffsets[g + 1]
+    private int[] keyOffsets = new int[33];
+    private char[] keyChars = new char[1024];
+    private long[] counts = new long[32];
+    private long[] valueCounts = new long[32];
+    private double[] sums = new double[32];
+    private double[] mins = new double[32];
+    private double[] maxs = new double[32];
+    // exact while inexact[g] is false
+    private long[] longSums = new long[32];
+    private long[] longMins = new long[32];
+    private long[] longMaxs = new long[32];
+    private boolean[] inexact = new boolean[32];
+    private int size;
+
+    // the record being visited
+    private int group;
+    private boolean hasValue;
+    private boolean integral;
+    private long longValue;
+    private double value;
+
+    /**
+     * @param csvParser   the parser to use to parse input
+     * @param keyColumn   the zero based column to group by. A record without it is in the group of the empty key.
+     * @param valueColumn the zero based column to sum, or {@link #NO_VALUE} to only count.
+     *                    Empty and missing values are counted but not summed.
+     */
+    public KissAggregator(KissParser csvParser, int keyColumn, int valueColumn) {
+        if (keyColumn < 0 || valueColumn < NO_VALUE) {
+            throw new IllegalArgumentException("Column must be zero or more");
+        }
+        this.parser = csvParser;
+        this.keyColumn = keyColumn;
+        this.valueColumn = valueColumn;
+    }
+
+    /**
+     * Aggregates the rest of the records of a reader. The reader is not closed.
+     *
+     * @param reader the records to aggregate.
+     * @return this aggregator.
+     */
+    public KissAggregator aggregate(KissReader reader) {
+        while (true) {
+            group = -1;
+            hasValue = false;
+            if (reader.visitNext(visitor) == -1) {
+                return this;
+            }
+            int g = group >= 0 ? group : find("", hash(""), true);
+            counts[g]++;
+            if (hasValue) {
+                exact(g, integral, longValue, longValue, longValue);
+                add(g, 1, value, value, value);
+            }
+        }
+    }
+
+    /**
+     * Aggregates a file in parallel, using {@link #DEFAULT_CHUNK_SIZE} chunks.
+     *
+     * @param path       the CSV file.
+     * @param charset    UTF-8 or an ASCII compatible single byte charset.
+     * @param headerRows the number of records at the start that are not aggregated.
+     * @return this aggregator.
+     * @throws IOException if the file cannot be read.
+     */
+    public KissAggregator aggregate(Path path, Charset charset, int headerRows) throws IOException {
+        return aggregate(path, charset, headerRows, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Aggregates a file in parallel on the common fork join pool. The file is read
+     * on the calling thread and cut into chunks that end on a record boundary, so a
+     * chunk is larger than the chunk size when a record crosses its end. It grows to at
+     * most four times the chunk size, so a quote that is never closed fails with a
+     * KissException rather than reading the rest of the file into one chunk.
+     *
+     * @param path       the CSV file.
+     * @param charset    UTF-8 or an ASCII compatible single byte charset.
+     * @param headerRows the number of records at the start that are not aggregated.
+     * @param chunkSize  the number of bytes to read for each chunk.
+     * @return this aggregator.
+     * @throws IOException if the file cannot be read.
+     */
+    public KissAggregator aggregate(Path path, Charset charset, int headerRows, int chunkSize) throws IOException {
+        KissChunker.run(path, parser, headerRows, chunkSize,
+            (chunk, offset, skipLines, recordNumber) -> aggregateChunk(chunk, charset, skipLines, recordNumber), this::merge);
+        return this;
+    }
+
+    private KissAggregator aggregateChunk(byte[] chunk, Charset charset, int skipLines, long recordNumber) {
+        KissInput input = new KissInput(Channels.newChannel(new ByteArrayInputStream(chunk)), charset);
+        return new KissAggregator(parser, keyColumn, valueColumn)
+            .aggregate(KissReader.atRecord(input, skipLines, parser, recordNumber));
+    }
+
+    /**
+     * Adds the groups of another aggregator to this one.
+     *
+     * @param other an aggregator of the same columns, such as one of another part of the input.
+     */
+    public void merge(KissAggregator other) {
+        for (int g = 0; g < other.size; g++) {
+            int start = other.keyOffsets[g];
+            CharSequence key = CharBuffer.wrap(other.keyChars, start, other.keyOffsets[g + 1] - start);
+            int to = find(key, other.hashes[g], true);
+            counts[to] += other.counts[g];
+            if (other.valueCounts[g] > 0) {
+                exact(to, !other.inexact[g], other.longSums[g], other.longMins[g], other.longMaxs[g]);
+                add(to, other.valueCounts[g], other.sums[g], other.mins[g], other.maxs[g]);
+            }
+        }
+    }
+
+    /**
+     * Writes a record for each group of its key, count, sum, minimum and maximum. The
+     * minimum and maximum are empty for a group without values.
+     *
+     * @param writer where to write the groups.
+     */
+    public void writeTo(KissWriter writer) {
+        String[] record = new String[5];
+        for (int g = 0; g < size; g++) {
+            boolean values = valueCounts[g] > 0;
+            boolean longs = !inexact[g];
+            record[0] = getKey(g);
+            record[1] = Long.toString(counts[g]);
+            record[2] = longs ? Long.toString(longSums[g]) : format(sums[g]);
+            record[3] = !values ? "" : longs ? Long.toString(longMins[g]) : format(mins[g]);
+            record[4] = !values ? "" : longs ? Long.toString(longMaxs[g]) : format(maxs[g]);
+            writer.writeNext(record);
+        }
+    }
+
+    /**
+     * @return the number of groups.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param key the key to look for.
+     * @return the group of the key, or -1 if there is none.
+     */
+    public int indexOf(CharSequence key) {
+        return find(key, hash(key), false);
+    }
+
+    /**
+     * @param group the group, from zero to {@link #size()}.
+     * @return the key of the group.
+     */
+    public String getKey(int group) {
+        checkGroup(group);
+        return new String(keyChars, keyOffsets[group], keyOffsets[group + 1] - keyOffsets[group]);
+    }
+
+    /**
+     * @param group the group, from zero to {@link #size()}.
+     * @return the number of records in the group.
+     */
+    public long getCount(int group) {
+        checkGroup(group);
+        return counts[group];
+    }
+
+    /**
+     * @param group the group, from zero to {@link #size()}.
+     * @return the number of records in the group with a value.
+     */
+    public long getValueCount(int group) {
+        checkGroup(group);
+        return valueCounts[group];
+    }
+
+    /**
+     * @param group the group, from zero to {@link #size()}.
+     * @return the sum of the values in the group.
+     */
+    public double getSum(int group) {
+        checkGroup(group);
+        return inexact[group] ? sums[group] : longSums[group];
+    }
+
+    /**
+     * @param group the group, from zero to {@link #size()}.
+     * @return true if every value in the group is an integer and their sum fits a long,
+     * so {@link #getLongSum(int)} is exact.
+     */
+    public boolean isIntegral(int group) {
+        checkGroup(group);
+        return !inexact[group];
+    }
+
+    /**
+     * @param group the group, from zero to {@link #size()}, that {@link #isIntegral(int)}.
+     * @return the exact sum of the values in the group.
+     */
+    public long getLongSum(int group) {
+        if (!isIntegral(group)) {
+            throw new IllegalArgumentException("Group " + group + " has values that are not integers or overflow a long");
+        }
+        return longSums[group];
+    }
+
+    /**
+     * @param group the group, from zero to {@link #size()}.
+     * @return the smallest value in the group, or NaN if it has no values.
+     */
+    public double getMin(int group) {
+        checkGroup(group);
+        return valueCounts[group] == 0 ? Double.NaN : inexact[group] ? mins[group] : longMins[group];
+    }
+
+    /**
+     * @param group the group, from zero to {@link #size()}.
+     * @return the largest value in the group, or NaN if it has no values.
+     */
+    public double getMax(int group) {
+        checkGroup(group);
+        return valueCounts[group] == 0 ? Double.NaN : inexact[group] ? maxs[group] : longMaxs[group];
+    }
+
+    private void visit(int index, KissField field) {
+        if (index == keyColumn) {
+            group = find(field, hash(field), true);
+        }
+        if (index == valueColumn && !field.isEmpty()) {
+            parseValue(field);
+            hasValue = true;
+        }
+    }
+
+    /**
+     * Adds to the exact long sum, minimum and maximum of a group, until a value is not
+     * an integer or the sum overflows. Called before {@link #add}.
+     */
+    private void exact(int g, boolean longs, long sum, long min, long max) {
+        if (inexact[g]) {
+            return;
+        }
+        long s = longSums[g] + sum;
+        if (!longs || ((longSums[g] ^ s) & (sum ^ s)) < 0) {
+            inexact[g] = true;
+            return;
+        }
+        longSums[g] = s;
+        if (valueCounts[g] == 0) {
+            longMins[g] = min;
+            longMaxs[g] = max;
+        } else {
+            longMins[g] = Math.min(longMins[g], min);
+            longMaxs[g] = Math.max(longMaxs[g], max);
+        }
+    }
+
+    private void add(int g, long n, double sum, double min, double max) {
+        if (valueCounts[g] == 0) {
+            mins[g] = min;
+            maxs[g] = max;
+        } else {
+            mins[g] = Math.min(mins[g], min);
+            maxs[g] = Math.max(maxs[g], max);
+        }
+        valueCounts[g] += n;
+        sums[g] += sum;
+    }
+
+    private void parseValue(KissField field) {
+        int length = field.length();
+        boolean negative = field.charAt(0) == '-';
+        int start = negative || field.charAt(0) == '+' ? 1 : 0;
+        int n = start;
+        while (n < length && field.charAt(n) >= '0' && field.charAt(n) <= '9') {
+            n++;
+        }
+        integral = n == length && n > start;
+        if (integral && length - start <= 18) {
+            // up to 18 digits cannot overflow a long
+            long v = 0;
+            for (n = start; n < length; n++) {
+                v = v * 10 + (field.charAt(n) - '0');
+            }
+            longValue = negative ? -v : v;
+            value = longValue;
+            return;
+        }
+        String s = field.toString();
+        if (integral) {
+            try {
+                longValue = Long.parseLong(s);
+                value = longValue;
+                return;
+            } catch (NumberFormatException ex) {
+                // too big for a long
+                integral = false;
+            }
+        }
+        try {
+            value = Double.parseDouble(s);
+        } catch (NumberFormatException ex) {
+            throw new KissException("Cannot aggregate '" + field + "' (column " + valueColumn + ")", ex);
+        }
+    }
+
+    private static int hash(CharSequence key) {
+        int h = 0;
+        for (int n = 0, length = key.length(); n < length; n++) {
+            h = 31 * h + key.charAt(n);
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private int find(CharSequence key, int h, boolean add) {
+        int mask = table.length - 1;
+        int slot = h & mask;
+        int entry;
+        while ((entry = table[slot]) != 0) {
+            int g = entry - 1;
+            if (hashes[g] == h && keyEquals(g, key)) {
+                return g;
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (!add) {
+            return -1;
+        }
+        int g = addGroup(key, h);
+        table[slot] = g + 1;
+        if (size * 2 > table.length) {
+            rehash();
+        }
+        return g;
+    }
+
+    private boolean keyEquals(int g, CharSequence key) {
+        int start = keyOffsets[g];
+        int length = key.length();
+        if (keyOffsets[g + 1] - start != length) {
+            return false;
+        }
+        for (int n = 0; n < length; n++) {
+            if (keyChars[start + n] != key.charAt(n)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int addGroup(CharSequence key, int h) {
+        int g = size;
+        if (g == counts.length) {
+            int capacity = g * 2;
+            hashes = Arrays.copyOf(hashes, capacity);
+            keyOffsets = Arrays.copyOf(keyOffsets, capacity + 1);
+            counts = Arrays.copyOf(counts, capacity);
+            valueCounts = Arrays.copyOf(valueCounts, capacity);
+            sums = Arrays.copyOf(sums, capacity);
+            mins = Arrays.copyOf(mins, capacity);
+            maxs = Arrays.copyOf(maxs, capacity);
+            longSums = Arrays.copyOf(longSums, capacity);
+            longMins = Arrays.copyOf(longMins, capacity);
+            longMaxs = Arrays.copyOf(longMaxs, capacity);
+            inexact = Arrays.copyOf(inexact, capacity);
+        }
+        int start = keyOffsets[g];
+        int length = key.length();
+        if (keyChars.length - start < length) {
+            keyChars = Arrays.copyOf(keyChars, Math.max(keyChars.length * 2, start + length));
+        }
+        for (int n = 0; n < length; n++) {
+            keyChars[start + n] = key.charAt(n);
+        }
+        keyOffsets[g + 1] = start + length;
+        hashes[g] = h;
+        size++;
+        return g;
+    }
+
+    private void rehash() {
+        int[] t = new int[table.length * 2];
+        int mask = t.length - 1;
+        for (int g = 0; g < size; g++) {
+            int slot = hashes[g] & mask;
+            while (t[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            t[slot] = g + 1;
+        }
+        table = t;
+    }
+
+    private void checkGroup(int group) {
+        if (group < 0 || group >= size) {
+            throw new IndexOutOfBoundsException("group " + group + ", size " + size);
+        }
+    }
+
+    private static String format(double d) {
+        // whole numbers are written without a fraction, as they were most likely read
+        if (d == Math.rint(d) && Math.abs(d) < 1L << 53) {
+            return Long.toString((long) d);
+        }
+        return Double.toString(d);
+    }
+}
@@ -0,0 +1,536 @@
+package github.footloosejava.kisscsv;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Parameter;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.ObjDoubleConsumer;
+import java.util.function.ObjIntConsumer;
+import java.util.function.ObjLongConsumer;
+import java.util.function.Supplier;
+
+/**
+ * Maps CSV columns to the properties of a class, and back again.
+ * <p>
+ * All reflection is done once, when the binder is created: columns are matched to
+ * fields or constructor parameters by name, and each gets a setter built with
+ * {@link LambdaMetafactory} (for public setter methods) or a {@link MethodHandle}
+ * (for fields), plus a converter for its type. Reading a record then costs a
+ * conversion and a setter call per field, straight from the parser's buffer.
+ * <p>
+ * A class with a no-arg constructor is bound through its setters or fields. Otherwise
+ * its constructor with the most parameters is used, which needs parameter names
+ * (compile with `-parameters`). Supported types are String, the primitives and their
+ * wrappers, BigDecimal, BigInteger, LocalDate, LocalTime, LocalDateTime and enums.
+ * Integers are read as {@link KissSchema.Type#LONG} describes them, so a field such as
+ * 007 or +5 does not convert.
+ * Empty fields leave properties at their default, and pass null (or zero) to
+ * constructors.
+ * <p>
+ * A binder is immutable and can be used by any number of threads.
+ *
+ * @param <T> the bound type.
+ */
+public final class KissBinder<T> {
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    private final String[] names;
+    private final Supplier<T> factory;
+    private final Setter<T>[] setters;
+    private final MethodHandle constructor;
+    private final Converter[] converters;
+    private final int[] parameters;
+    private final Class<?>[] parameterTypes;
+    private final Function<T, Object>[] getters;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private KissBinder(Class<T> type, String[] columns, boolean strict) {
+        Map<String, Property> properties = properties(type);
+        this.names = new String[columns.length];
+        this.converters = new Converter[columns.length];
+        this.getters = new Function[columns.length];
+        Property[] bound = new Property[columns.length];
+        for (int n = 0; n < columns.length; n++) {
+            Property p = columns[n] == null ? null : properties.get(normalize(columns[n]));
+            if (p == null) {
+                if (strict && columns[n] != null) {
+                    throw new IllegalArgumentException("No property " + columns[n] + " in " + type.getName());
+                }
+                continue;
+            }
+            bound[n] = p;
+            names[n] = p.name;
+            converters[n] = converter(p.type);
+            getters[n] = getter(p);
+        }
+
+        Constructor<T> noArgs = null;
+        for (Constructor<?> c : type.getDeclaredConstructors()) {
+            if (c.getParameterCount() == 0) {
+                noArgs = (Constructor<T>) c;
+            }
+        }
+        try {
+            if (noArgs != null) {
+                this.factory = factory(type, noArgs);
+                this.setters = new Setter[columns.length];
+                for (int n = 0; n < columns.length; n++) {
+                    if (bound[n] != null && (strict || settable(bound[n]))) {
+                        setters[n] = setter(bound[n], converters[n]);
+                    }
+                }
+                this.constructor = null;
+                this.parameters = null;
+                this.parameterTypes = null;
+            } else {
+                Constructor<?> widest = null;
+                for (Constructor<?> c : type.getDeclaredConstructors()) {
+                    if (widest == null || c.getParameterCount() > widest.getParameterCount()) {
+                        widest = c;
+                    }
+                }
+                if (widest == null) {
+                    throw new IllegalArgumentException("No constructor in " + type.getName());
+                }
+                Parameter[] ps = widest.getParameters();
+                this.parameterTypes = widest.getParameterTypes();
+                this.parameters = new int[columns.length];
+                for (int n = 0; n < columns.length; n++) {
+                    parameters[n] = -1;
+                    for (int i = 0; bound[n] != null && i < ps.length; i++) {
+                        if (!ps[i].isNamePresent()) {
+                            throw new IllegalArgumentException("Parameter names of " + type.getName()
+                                + " are not available. Compile with -parameters or add a no-arg constructor.");
+                        }
+                        if (ps[i].getName().equals(bound[n].name)) {
+                            parameters[n] = i;
+                        }
+                    }
+                }
+                widest.setAccessible(true);
+                this.constructor = LOOKUP.unreflectConstructor(widest).asSpreader(Object[].class, ps.length);
+                this.factory = null;
+                this.setters = null;
+            }
+        } catch (ReflectiveOperationException ex) {
+            throw new IllegalArgumentException("Cannot bind " + type.getName() + ": " + ex, ex);
+        }
+    }
+
+    /**
+     * Binds columns to properties by header name. Names are matched ignoring case and
+     * anything that is not a letter or digit, so `Trade Date` binds to `tradeDate`.
+     * Columns without a matching property are ignored, and so are columns whose property
+     * cannot be set, such as a final field without a setter, when records are read. They
+     * are still written.
+     *
+     * @param type   the class to bind.
+     * @param header the header record.
+     * @param <T>    the bound type.
+     * @return the binder.
+     */
+    public static <T> KissBinder<T> byHeader(Class<T> type, String... header) {
+        return new KissBinder<>(type, header, false);
+    }
+
+    /**
+     * Binds columns to properties by position.
+     *
+     * @param type       the class to bind.
+     * @param properties the property name for each column, or null to ignore a column.
+     * @param <T>        the bound type.
+     * @return the binder.
+     * @throws IllegalArgumentException if a property does not exist or cannot be set.
+     */
+    public static <T> KissBinder<T> byColumns(Class<T> type, String... properties) {
+        return new KissBinder<>(type, properties, true);
+    }
+
+    /**
+     * Reads the next record straight into a new object, without creating a String[].
+     *
+     * @param reader the reader to read from.
+     * @return the object, or null if EOF.
+     */
+    public T readNext(KissReader reader) {
+        if (setters != null) {
+            T target = factory.get();
+            int count = reader.visitNext((index, field) -> {
+                if (index < setters.length && setters[index] != null && !field.isEmpty()) {
+                    try {
+                        setters[index].set(target, field);
+                    } catch (RuntimeException ex) {
+                        throw conversionError(index, field, ex);
+                    }
+                }
+            });
+            return count == -1 ? null : target;
+        }
+        Object[] args = new Object[parameterTypes.length];
+        int count = reader.visitNext((index, field) -> {
+            if (index < parameters.length && parameters[index] != -1 && !field.isEmpty()) {
+                try {
+                    args[parameters[index]] = converters[index].convert(field);
+                } catch (RuntimeException ex) {
+                    throw conversionError(index, field, ex);
+                }
+            }
+        });
+        return count == -1 ? null : construct(args);
+    }
+
+    /**
+     * Binds a record that has already been read.
+     *
+     * @param record the record.
+     * @return the object.
+     */
+    public T bind(String[] record) {
+        KissField field = new KissField();
+        if (setters != null) {
+            T target = factory.get();
+            for (int n = 0; n < record.length && n < setters.length; n++) {
+                if (setters[n] != null && record[n] != null && !record[n].isEmpty()) {
+                    try {
+                        setters[n].set(target, field.set(record[n], 0, record[n].length()));
+                    } catch (RuntimeException ex) {
+                        throw conversionError(n, field, ex);
+                    }
+                }
+            }
+            return target;
+        }
+        Object[] args = new Object[parameterTypes.length];
+        for (int n = 0; n < record.length && n < parameters.length; n++) {
+            if (parameters[n] != -1 && record[n] != null && !record[n].isEmpty()) {
+                try {
+                    args[parameters[n]] = converters[n].convert(field.set(record[n], 0, record[n].length()));
+                } catch (RuntimeException ex) {
+                    throw conversionError(n, field, ex);
+                }
+            }
+        }
+        return construct(args);
+    }
+
+    /**
+     * Writes an object as a record, one field per bound column. Unbound columns are
+     * written empty.
+     *
+     * @param writer the writer to write to.
+     * @param value  the object.
+     */
+    public void writeNext(KissWriter writer, T value) {
+        for (Function<T, Object> getter : getters) {
+            Object v = getter == null ? null : getter.apply(value);
+            writer.writeField(v == null ? null : v instanceof BigDecimal ? ((BigDecimal) v).toPlainString() : v.toString());
+        }
+        writer.endRecord();
+    }
+
+    /**
+     * @return the bound property name of each column, null where a column is not bound.
+     */
+    public String[] getHeader() {
+        return names.clone();
+    }
+
+    @SuppressWarnings("unchecked")
+    private T construct(Object[] args) {
+        for (int n = 0; n < args.length; n++) {
+            if (args[n] == null && parameterTypes[n].isPrimitive()) {
+                args[n] = primitiveDefault(parameterTypes[n]);
+            }
+        }
+        try {
+            return (T) constructor.invoke(args);
+        } catch (RuntimeException | Error ex) {
+            throw ex;
+        } catch (Throwable ex) {
+            throw new KissException("Cannot construct object: " + ex, new Exception(ex));
+        }
+    }
+
+    private KissException conversionError(int index, KissField field, RuntimeException ex) {
+        return new KissException("Cannot convert '" + field + "' for " + names[index] + " (column " + index + ")", ex);
+    }
+
+    private static Object primitiveDefault(Class<?> type) {
+        if (type == boolean.class) {
+            return false;
+        } else if (type == char.class) {
+            return '\0';
+        } else if (type == long.class) {
+            return 0L;
+        } else if (type == double.class) {
+            return 0d;
+        } else if (type == float.class) {
+            return 0f;
+        } else if (type == int.class) {
+            return 0;
+        } else if (type == short.class) {
+            return (short) 0;
+        }
+        return (byte) 0;
+    }
+
+    @FunctionalInterface
+    private interface Setter<T> {
+
+        void set(T target, KissField field);
+    }
+
+    @FunctionalInterface
+    private interface Converter {
+
+        Object convert(KissField field);
+    }
+
+    private static final class Property {
+
+        final String name;
+        final Class<?> type;
+        Field field;
+        Method setter;
+        Method getter;
+
+        Property(String name, Class<?> type) {
+            this.name = name;
+            this.type = type;
+        }
+    }
+
+    private static String normalize(String name) {
+        StringBuilder sb = new StringBuilder(name.length());
+        for (int n = 0; n < name.length(); n++) {
+            char c = name.charAt(n);
+            if (Character.isLetterOrDigit(c)) {
+                sb.append(Character.toLowerCase(c));
+            }
+        }
+        return sb.toString();
+    }
+
+    private static Map<String, Property> properties(Class<?> type) {
+        Map<String, Property> properties = new HashMap<>();
+        for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+            for (Field f : c.getDeclaredFields()) {
+                int mod = f.getModifiers();
+                if (!Modifier.isStatic(mod) && !Modifier.isTransient(mod) && !f.isSynthetic()) {
+                    Property p = properties.computeIfAbsent(normalize(f.getName()), k -> new Property(f.getName(), f.getType()));
+                    if (p.field == null && p.type == f.getType()) {
+                        p.field = f;
+                    }
+                }
+            }
+        }
+        for (Method m : type.getMethods()) {
+            String name = m.getName();
+            if (Modifier.isStatic(m.getModifiers())) {
+                continue;
+            }
+            if (name.startsWith("set") && m.getParameterCount() == 1 && m.getReturnType() == void.class) {
+                Property p = properties.get(normalize(name.substring(3)));
+                if (p != null && p.type == m.getParameterTypes()[0]) {
+                    p.setter = m;
+                }
+            } else if (m.getParameterCount() == 0 && (name.startsWith("get") || name.startsWith("is"))) {
+                Property p = properties.get(normalize(name.substring(name.startsWith("is") ? 2 : 3)));
+                if (p != null && p.type == m.getReturnType()) {
+                    p.getter = m;
+                }
+            }
+        }
+        return properties;
+    }
+
+    private static boolean settable(Property p) {
+        return p.setter != null || (p.field != null && !Modifier.isFinal(p.field.getModifiers()));
+    }
+
+    private static boolean lambdaAccessible(Method m) {
+        return Modifier.isPublic(m.getDeclaringClass().getModifiers()) && Modifier.isPublic(m.getModifiers());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> Supplier<T> factory(Class<T> type, Constructor<T> c) throws ReflectiveOperationException {
+        if (Modifier.isPublic(type.getModifiers()) && Modifier.isPublic(c.getModifiers())) {
+            try {
+                CallSite site = LambdaMetafactory.metafactory(LOOKUP, "get", MethodType.methodType(Supplier.class),
+                    MethodType.methodType(Object.class), LOOKUP.unreflectConstructor(c), MethodType.methodType(type));
+                return (Supplier<T>) site.getTarget().invoke();
+            } catch (Throwable ex) {
+                // fall back to a method handle
+            }
+        }
+        c.setAccessible(true);
+        MethodHandle mh = LOOKUP.unreflectConstructor(c).asType(MethodType.methodType(Object.class));
+        return () -> {
+            try {
+                return (T) mh.invokeExact();
+            } catch (RuntimeException | Error ex) {
+                throw ex;
+            } catch (Throwable ex) {
+                throw new KissException("Cannot construct object: " + ex, new Exception(ex));
+            }
+        };
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <F> F lambda(Class<F> fi, String name, MethodType erased, Method m) throws Throwable {
+        MethodHandle impl = LOOKUP.unreflect(m);
+        CallSite site = LambdaMetafactory.metafactory(LOOKUP, name, MethodType.methodType(fi),
+            erased, impl, impl.type());
+        return (F) site.getTarget().invoke();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> Setter<T> setter(Property p, Converter converter) throws ReflectiveOperationException {
+        Class<?> type = p.type;
+        if (p.setter != null && lambdaAccessible(p.setter)) {
+            try {
+                if (type == int.class) {
+                    ObjIntConsumer<T> c = lambda(ObjIntConsumer.class, "accept",
+                        MethodType.methodType(void.class, Object.class, int.class), p.setter);
+                    return (target, field) -> c.accept(target, (int) KissNumbers.parseLong(field, Integer.MIN_VALUE, Integer.MAX_VALUE));
+                } else if (type == long.class) {
+                    ObjLongConsumer<T> c = lambda(ObjLongConsumer.class, "accept",
+                        MethodType.methodType(void.class, Object.class, long.class), p.setter);
+                    return (target, field) -> c.accept(target, KissNumbers.parseLong(field, Long.MIN_VALUE, Long.MAX_VALUE));
+                } else if (type == double.class) {
+                    ObjDoubleConsumer<T> c = lambda(ObjDoubleConsumer.class, "accept",
+                        MethodType.methodType(void.class, Object.class, double.class), p.setter);
+                    return (target, field) -> c.accept(target, Double.parseDouble(field.toString()));
+                } else if (!type.isPrimitive()) {
+                    BiConsumer<T, Object> c = lambda(BiConsumer.class, "accept",
+                        MethodType.methodType(void.class, Object.class, Object.class), p.setter);
+                    return (target, field) -> c.accept(target, converter.convert(field));
+                }
+            } catch (Throwable ex) {
+                // fall back to a method handle
+            }
+        }
+        MethodHandle mh;
+        if (p.setter != null) {
+            p.setter.setAccessible(true);
+            mh = LOOKUP.unreflect(p.setter);
+        } else if (settable(p)) {
+            p.field.setAccessible(true);
+            mh = LOOKUP.unreflectSetter(p.field);
+        } else {
+            throw new IllegalArgumentException("Property " + p.name + " cannot be set");
+        }
+        MethodHandle generic = mh.asType(MethodType.methodType(void.class, Object.class, Object.class));
+        return (target, field) -> {
+            try {
+                generic.invokeExact((Object) target, converter.convert(field));
+            } catch (RuntimeException | Error ex) {
+                throw ex;
+            } catch (Throwable ex) {
+                throw new KissException("Cannot set " + p.name + ": " + ex, new Exception(ex));
+            }
+        };
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> Function<T, Object> getter(Property p) {
+        try {
+            if (p.getter != null && lambdaAccessible(p.getter) && !p.type.isPrimitive()) {
+                try {
+                    return lambda(Function.class, "apply", MethodType.methodType(Object.class, Object.class), p.getter);
+                } catch (Throwable ex) {
+                    // fall back to a method handle
+                }
+            }
+            MethodHandle mh;
+            if (p.getter != null) {
+                p.getter.setAccessible(true);
+                mh = LOOKUP.unreflect(p.getter);
+            } else if (p.field != null) {
+                p.field.setAccessible(true);
+                mh = LOOKUP.unreflectGetter(p.field);
+            } else {
+                return null;
+            }
+            MethodHandle generic = mh.asType(MethodType.methodType(Object.class, Object.class));
+            return target -> {
+                try {
+                    return generic.invokeExact((Object) target);
+                } catch (RuntimeException | Error ex) {
+                    throw ex;
+                } catch (Throwable ex) {
+                    throw new KissException("Cannot get " + p.name + ": " + ex, new Exception(ex));
+                }
+            };
+        } catch (IllegalAccessException ex) {
+            throw new IllegalArgumentException("Property " + p.name + " cannot be read", ex);
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Converter converter(Class<?> type) {
+        if (type == String.class || type == CharSequence.class || type == Object.class) {
+            return KissField::toString;
+        } else if (type == int.class || type == Integer.class) {
+            return field -> (int) KissNumbers.parseLong(field, Integer.MIN_VALUE, Integer.MAX_VALUE);
+        } else if (type == long.class || type == Long.class) {
+            return field -> KissNumbers.parseLong(field, Long.MIN_VALUE, Long.MAX_VALUE);
+        } else if (type == short.class || type == Short.class) {
+            return field -> (short) KissNumbers.parseLong(field, Short.MIN_VALUE, Short.MAX_VALUE);
+        } else if (type == byte.class || type == Byte.class) {
+            return field -> (byte) KissNumbers.parseLong(field, Byte.MIN_VALUE, Byte.MAX_VALUE);
+        } else if (type == double.class || type == Double.class) {
+            return field -> Double.parseDouble(field.toString());
+        } else if (type == float.class || type == Float.class) {
+            return field -> Float.parseFloat(field.toString());
+        } else if (type == boolean.class || type == Boolean.class) {
+            return KissBinder::parseBoolean;
+        } else if (type == char.class || type == Character.class) {
+            return field -> {
+                if (field.length() != 1) {
+                    throw new IllegalArgumentException("Not a single character");
+                }
+                return field.charAt(0);
+            };
+        } else if (type == BigDecimal.class) {
+            return field -> new BigDecimal(field.toString());
+        } else if (type == BigInteger.class) {
+            return field -> new BigInteger(field.toString());
+        } else if (type == LocalDate.class) {
+            return LocalDate::parse;
+        } else if (type == LocalTime.class) {
+            return LocalTime::parse;
+        } else if (type == LocalDateTime.class) {
+            return LocalDateTime::parse;
+        } else if (type.isEnum()) {
+            return field -> Enum.valueOf((Class) type, field.toString());
+        }
+        throw new IllegalArgumentException("Unsupported property type " + type.getName());
+    }
+
+    private static Boolean parseBoolean(KissField field) {
+        if (field.length() == 4 && field.toString().toLowerCase(Locale.ROOT).equals("true")) {
+            return Boolean.TRUE;
+        } else if (field.length() == 5 && field.toString().toLowerCase(Locale.ROOT).equals("false")) {
+            return Boolean.FALSE;
+        }
+        throw new IllegalArgumentException("Not a boolean");
+    }
+}
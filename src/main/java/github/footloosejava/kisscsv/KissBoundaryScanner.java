@@ -0,0 +1,95 @@
+package github.footloosejava.kisscsv;
+
+/**
+ * Finds record boundaries in raw bytes without parsing fields, by tracking only
+ * whether it is inside quotes. This works on the bytes of any ASCII compatible
+ * charset, such as UTF-8, as long as the quote character is ASCII: the bytes of
+ * multi-byte characters never look like a quote or a line feed.
+ * <p>
+ * State carries over from one call to the next, so data can be scanned in pieces.
+ */
+final class KissBoundaryScanner {
+
+    private final int quote;
+    private boolean inQuotes;
+    private long recordEnds;
+
+    KissBoundaryScanner(KissParser parser) {
+        Character q = parser.getQuoteCharacter();
+        if (q != null && q >= 0x80) {
+            throw new IllegalArgumentException("Scanning bytes needs an ASCII quote character, not " + q);
+        }
+        this.quote = q == null ? Integer.MIN_VALUE : q;
+    }
+
+    /**
+     * @return the offset just after the last record end in the range, or -1 if there is none.
+     */
+    int lastBoundary(byte[] b, int from, int to) {
+        int last = -1;
+        long ends = recordEnds;
+        boolean q = inQuotes;
+        for (int n = from; n < to; n++) {
+            int c = b[n];
+            if (c == quote) {
+                q = !q;
+            } else if (c == '\n' && !q) {
+                last = n + 1;
+                ends++;
+            }
+        }
+        inQuotes = q;
+        recordEnds = ends;
+        return last;
+    }
+
+    /**
+     * @return the offset just after the first record end in the range, or -1 if there is none.
+     */
+    int nextBoundary(byte[] b, int from, int to) {
+        boolean q = inQuotes;
+        for (int n = from; n < to; n++) {
+            int c = b[n];
+            if (c == quote) {
+                q = !q;
+            } else if (c == '\n' && !q) {
+                inQuotes = false;
+                recordEnds++;
+                return n + 1;
+            }
+        }
+        inQuotes = q;
+        return -1;
+    }
+
+    /**
+     * @return the offset just after the last line feed before {@code to}, or -1 if there is none.
+     */
+    static int lastLineEnd(byte[] b, int to) {
+        for (int n = to - 1; n >= 0; n--) {
+            if (b[n] == '\n') {
+                return n + 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Takes the scanner out of quotes, after giving up on a quote that was never closed.
+     */
+    void leaveQuotes() {
+        inQuotes = false;
+    }
+
+    /**
+     * @return the number of record ends scanned since creation or the last reset.
+     */
+    long recordEnds() {
+        return recordEnds;
+    }
+
+    void reset() {
+        inQuotes = false;
+        recordEnds = 0;
+    }
+}
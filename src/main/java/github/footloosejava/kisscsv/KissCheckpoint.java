@@ -0,0 +1,70 @@
+package github.footloosejava.kisscsv;
+
+/**
+ * A record boundary in a CSV file: the byte offset of the next record and its record
+ * number. Taken with {@link KissReader#checkpoint()} and used to resume reading with
+ * {@link KissReader#resume(java.nio.file.Path, java.nio.charset.Charset, KissParser, KissCheckpoint)}.
+ */
+public final class KissCheckpoint {
+
+    private final long position;
+    private final long recordNumber;
+
+    /**
+     * @param position     the byte offset of the start of the next record.
+     * @param recordNumber the number of the next record, counting from 1.
+     */
+    public KissCheckpoint(long position, long recordNumber) {
+        if (position < 0 || recordNumber < 1) {
+            throw new IllegalArgumentException("Invalid checkpoint: " + position + ":" + recordNumber);
+        }
+        this.position = position;
+        this.recordNumber = recordNumber;
+    }
+
+    /**
+     * @param s a checkpoint in the form produced by {@link #toString()}.
+     * @return the checkpoint.
+     */
+    public static KissCheckpoint parse(String s) {
+        int colon = s.indexOf(':');
+        if (colon == -1) {
+            throw new IllegalArgumentException("Invalid checkpoint: " + s);
+        }
+        try {
+            return new KissCheckpoint(Long.parseLong(s.substring(0, colon)), Long.parseLong(s.substring(colon + 1)));
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("Invalid checkpoint: " + s, ex);
+        }
+    }
+
+    public long getPosition() {
+        return position;
+    }
+
+    public long getRecordNumber() {
+        return recordNumber;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof KissCheckpoint)) {
+            return false;
+        }
+        KissCheckpoint other = (KissCheckpoint) o;
+        return position == other.position && recordNumber == other.recordNumber;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(position) * 31 + Long.hashCode(recordNumber);
+    }
+
+    /**
+     * @return the checkpoint as `position:recordNumber`.
+     */
+    @Override
+    public String toString() {
+        return position + ":" + recordNumber;
+    }
+}
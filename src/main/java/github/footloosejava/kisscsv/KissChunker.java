@@ -0,0 +1,135 @@
+package github.footloosejava.kisscsv;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+
+/**
+ * Processes a file in parallel chunks that start and end on record boundaries.
+ * <p>
+ * The file is read on the calling thread and cut with a {@link KissBoundaryScanner},
+ * so a chunk is larger than the chunk size when a record crosses its end. Each chunk
+ * is processed on the common fork join pool, and the results are handed back on the
+ * calling thread in file order. Only a few chunks are in memory at a time.
+ * <p>
+ * A chunk grows past the chunk size only up to {@link #MAX_GROWTH} times it. If no
+ * record ends by then, a quote was most likely never closed, so the chunk is cut at
+ * its last line end instead and the task is left to resync, as a lenient reader does.
+ * A well-formed record with line ends that is longer than that is cut too.
+ */
+final class KissChunker {
+
+    static final int DEFAULT_CHUNK_SIZE = 1 << 22;
+    static final int MAX_GROWTH = 4;
+
+    /**
+     * Processes one chunk.
+     *
+     * @param <R> the result of a chunk.
+     */
+    interface Task<R> {
+
+        /**
+         * @param chunk        the bytes of the chunk.
+         * @param offset       the position of the chunk in the file.
+         * @param skipLines    the number of header records at the start of the chunk.
+         * @param recordNumber the number of the first record of the chunk.
+         * @return the result.
+         */
+        R process(byte[] chunk, long offset, int skipLines, long recordNumber);
+    }
+
+    private KissChunker() {
+    }
+
+    static <R> void run(Path path, KissParser parser, int headerRows, int chunkSize,
+                        Task<R> task, Consumer<R> results) throws IOException {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("Chunk size must be positive");
+        }
+        KissBoundaryScanner scanner = new KissBoundaryScanner(parser);
+        int maxLength = (int) Math.min((long) chunkSize * MAX_GROWTH, Integer.MAX_VALUE - 8);
+        int maxRunning = 2 * ForkJoinPool.getCommonPoolParallelism();
+        ArrayDeque<CompletableFuture<R>> running = new ArrayDeque<>();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            byte[] buf = new byte[chunkSize];
+            int length = 0;
+            long offset = 0;
+            long recordNumber = 1;
+            boolean first = true;
+            boolean eof = false;
+            while (!eof) {
+                int cut = length == buf.length && length >= maxLength ? KissBoundaryScanner.lastLineEnd(buf, length) : -1;
+                if (cut > 0) {
+                    // no record end in a full chunk: give up on the open quote and
+                    // scan what is left after the cut again from outside quotes
+                    scanner.leaveQuotes();
+                    scanner.lastBoundary(buf, cut, length);
+                } else {
+                    if (length == buf.length) {
+                        // a record longer than a chunk
+                        buf = Arrays.copyOf(buf, (int) Math.min(buf.length * 2L, Integer.MAX_VALUE - 8));
+                    }
+                    ByteBuffer bb = ByteBuffer.wrap(buf, length, buf.length - length);
+                    while (bb.hasRemaining() && !eof) {
+                        eof = channel.read(bb) == -1;
+                    }
+                    int scanFrom = length;
+                    length = bb.position();
+                    cut = scanner.lastBoundary(buf, scanFrom, length);
+                    if (eof) {
+                        cut = length;
+                    } else if (cut == -1 || (first && scanner.recordEnds() < headerRows)) {
+                        continue;
+                    }
+                    if (cut == 0) {
+                        break;
+                    }
+                }
+                byte[] chunk = Arrays.copyOf(buf, cut);
+                System.arraycopy(buf, cut, buf, 0, length - cut);
+                length -= cut;
+                if (buf.length > chunkSize && length < chunkSize) {
+                    // back to chunks of the chunk size after a long record
+                    buf = Arrays.copyOf(buf, chunkSize);
+                }
+                int skip = first ? headerRows : 0;
+                long start = offset;
+                long number = recordNumber;
+                offset += cut;
+                recordNumber = scanner.recordEnds() + 1;
+                first = false;
+                if (running.size() >= maxRunning) {
+                    results.accept(join(running.poll()));
+                }
+                running.add(CompletableFuture.supplyAsync(() -> task.process(chunk, start, skip, number)));
+            }
+            while (!running.isEmpty()) {
+                results.accept(join(running.poll()));
+            }
+        }
+    }
+
+    private static <R> R join(CompletableFuture<R> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new KissException("Interrupted while processing chunks", ex);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new KissException("Failed to process chunk: " + cause, ex);
+        }
+    }
+}
@@ -0,0 +1,869 @@
+package github.footloosejava.kisscsv;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A binary, columnar snapshot of a parsed CSV file, kept in a sidecar file next to it
+ * so that later loads of the same file skip parsing.
+ * <p>
+ * The first {@link #load(Path, Charset, KissParser)} parses the CSV file and writes
+ * `file.csv.kisscol`. While parsing, the values of every column are spilled in blocks
+ * to one temporary file next to it, so neither memory use nor the number of open files
+ * grows with the size or width of the file. Columns holding only integers are stored
+ * as longs, columns with few distinct values are dictionary encoded and the rest are
+ * stored as chars. Later
+ * loads memory-map the snapshot, as long as the CSV file's size and modification time
+ * and the parser configuration match the ones it was written with, and the snapshot
+ * is complete. Otherwise it is written again.
+ * <p>
+ * Header records are kept apart from the columns, so a header does not stop a column
+ * of numbers being stored as longs. Record indexes count the records after them.
+ * <p>
+ * Values come back exactly as parsed: a column is only stored as longs if every value
+ * prints back the same. Snapshots are limited to 2GB. A loaded cache is read-only and
+ * can be used by any number of threads.
+ */
+public final class KissColumnarCache {
+
+    public static final String SUFFIX = ".kisscol";
+
+    private static final long MAGIC = 0x4B495353434F4C32L; // KISSCOL2
+    static final int MAX_DICTIONARY = 1 << 16;
+
+    public enum ColumnType {
+        LONG, DICTIONARY, STRING
+    }
+
+    private final ByteBuffer data;
+    private final String[][] headers;
+    private final int recordCount;
+    private final int fieldCountSection;
+    private final ColumnType[] types;
+    private final int[] sections;
+    private final AtomicReferenceArray<String[]> dictionaries;
+    private final KissParser parser;
+
+    private KissColumnarCache(ByteBuffer data, KissParser parser) {
+        this.data = data;
+        this.parser = parser;
+        int pos = skipKey(data);
+        this.headers = new String[data.getInt(pos)][];
+        pos += 4;
+        for (int h = 0; h < headers.length; h++) {
+            headers[h] = new String[data.getInt(pos)];
+            pos += 4;
+            for (int f = 0; f < headers[h].length; f++) {
+                char[] value = new char[data.getInt(pos)];
+                pos += 4;
+                for (int n = 0; n < value.length; n++, pos += 2) {
+                    value[n] = data.getChar(pos);
+                }
+                headers[h][f] = new String(value);
+            }
+        }
+        this.recordCount = data.getInt(pos);
+        int columnCount = data.getInt(pos + 4);
+        pos += 8;
+        // field counts are read from the mapping and dictionaries decoded when first
+        // used, so opening a snapshot does not cost time or heap per record
+        this.fieldCountSection = pos;
+        pos += 4 * recordCount;
+        this.types = new ColumnType[columnCount];
+        this.sections = new int[columnCount];
+        this.dictionaries = new AtomicReferenceArray<>(columnCount);
+        for (int c = 0; c < columnCount; c++, pos += 5) {
+            types[c] = ColumnType.values()[data.get(pos)];
+            sections[c] = data.getInt(pos + 1);
+        }
+    }
+
+    /**
+     * Loads a CSV file through its snapshot, parsing it and writing the snapshot first
+     * if there is no up to date one.
+     *
+     * @param csv       the CSV file.
+     * @param charset   the character set of the CSV file.
+     * @param csvParser the parser to use to parse input
+     * @return the cache.
+     * @throws IOException if the file cannot be read or the snapshot cannot be written.
+     */
+    public static KissColumnarCache load(Path csv, Charset charset, KissParser csvParser) throws IOException {
+        return load(csv, charset, csvParser, 0, null);
+    }
+
+    /**
+     * Loads a CSV file through its snapshot, keeping its header records apart from the
+     * columns and using a schema to choose the encoding of each column when the snapshot
+     * is written. The schema only saves work: a column is still stored as longs only if
+     * all its values are, and dictionary encoded only while it has few distinct values.
+     *
+     * @param csv        the CSV file.
+     * @param charset    the character set of the CSV file.
+     * @param csvParser  the parser to use to parse input
+     * @param headerRows the number of records at the start that are header records.
+     * @param schema     the schema of the CSV file, such as from {@link KissSchema#sample(Path, Charset, KissParser, int, int)}
+     *                   with the same number of header rows. Can be null to choose encodings from the values.
+     * @return the cache.
+     * @throws IOException if the file cannot be read or the snapshot cannot be written.
+     */
+    public static KissColumnarCache load(Path csv, Charset charset, KissParser csvParser, int headerRows,
+                                         KissSchema schema) throws IOException {
+        if (headerRows < 0) {
+            throw new IllegalArgumentException("Header rows must be zero or more");
+        }
+        Path sidecar = csv.resolveSibling(csv.getFileName() + SUFFIX);
+        byte[] key = key(csv, charset, csvParser, headerRows);
+        if (Files.exists(sidecar)) {
+            ByteBuffer mapped = map(sidecar);
+            if (matches(mapped, key)) {
+                return new KissColumnarCache(mapped, csvParser);
+            }
+        }
+        write(csv, charset, csvParser, headerRows, schema, key, sidecar);
+        return new KissColumnarCache(map(sidecar), csvParser);
+    }
+
+    /**
+     * @return a reader over the cached records, behaving like a KissReader over the CSV file.
+     */
+    public KissReader reader() {
+        return new CachedReader(this);
+    }
+
+    /**
+     * @return the number of header records.
+     */
+    public int getHeaderRowCount() {
+        return headers.length;
+    }
+
+    /**
+     * @param row the zero based header record index.
+     * @return the fields of the header record.
+     */
+    public String[] getHeader(int row) {
+        return headers[row].clone();
+    }
+
+    /**
+     * @return the number of records, not counting header records.
+     */
+    public int getRecordCount() {
+        return recordCount;
+    }
+
+    public int getColumnCount() {
+        return types.length;
+    }
+
+    /**
+     * @param record the zero based record index.
+     * @return the number of fields in the record.
+     */
+    public int getFieldCount(int record) {
+        if (record < 0 || record >= recordCount) {
+            throw new IndexOutOfBoundsException("Record " + record + " of " + recordCount);
+        }
+        return data.getInt(fieldCountSection + record * 4);
+    }
+
+    public ColumnType getColumnType(int column) {
+        return types[column];
+    }
+
+    /**
+     * @param record the zero based record index.
+     * @param column the zero based column index of a {@link ColumnType#LONG} column.
+     * @return the value.
+     */
+    public long getLong(int record, int column) {
+        if (types[column] != ColumnType.LONG) {
+            throw new IllegalArgumentException("Column " + column + " is " + types[column]);
+        }
+        return data.getLong(sections[column] + record * 8);
+    }
+
+    /**
+     * @param record the zero based record index.
+     * @param column the zero based column index.
+     * @return the value, or null if the record has no such column.
+     */
+    public String getString(int record, int column) {
+        if (column >= getFieldCount(record)) {
+            return null;
+        }
+        switch (types[column]) {
+            case LONG:
+                return Long.toString(getLong(record, column));
+            case DICTIONARY:
+                return dictionary(column)[data.getInt(dictionaryCodes(column) + record * 4)];
+            default:
+                int offsets = sections[column];
+                int start = data.getInt(offsets + record * 4);
+                int end = data.getInt(offsets + record * 4 + 4);
+                int chars = offsets + (recordCount + 1) * 4;
+                char[] value = new char[end - start];
+                for (int n = 0; n < value.length; n++) {
+                    value[n] = data.getChar(chars + (start + n) * 2);
+                }
+                return new String(value);
+        }
+    }
+
+    private int dictionaryCodes(int column) {
+        int pos = sections[column];
+        int size = data.getInt(pos);
+        int charsStart = pos + 4 + (size + 1) * 4;
+        return charsStart + data.getInt(pos + 4 + size * 4) * 2;
+    }
+
+    private String[] dictionary(int column) {
+        String[] dictionary = dictionaries.get(column);
+        if (dictionary == null) {
+            // threads racing here decode the same values, so any one can win
+            dictionary = readDictionary(sections[column]);
+            dictionaries.compareAndSet(column, null, dictionary);
+        }
+        return dictionary;
+    }
+
+    private String[] readDictionary(int pos) {
+        int size = data.getInt(pos);
+        int offsets = pos + 4;
+        int chars = offsets + (size + 1) * 4;
+        String[] dictionary = new String[size];
+        for (int d = 0; d < size; d++) {
+            int start = data.getInt(offsets + d * 4);
+            int end = data.getInt(offsets + d * 4 + 4);
+            char[] value = new char[end - start];
+            for (int n = 0; n < value.length; n++) {
+                value[n] = data.getChar(chars + (start + n) * 2);
+            }
+            dictionary[d] = new String(value);
+        }
+        return dictionary;
+    }
+
+    private static ByteBuffer map(Path sidecar) throws IOException {
+        try (FileChannel channel = FileChannel.open(sidecar, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    private static byte[] key(Path csv, Charset charset, KissParser parser, int headerRows) throws IOException {
+        Character quote = parser.getQuoteCharacter();
+        String key = Files.size(csv) + ":" + Files.getLastModifiedTime(csv).toMillis() + ":" + charset.name()
+            + ":" + (int) parser.getSeparator() + ":" + (quote == null ? -1 : (int) quote) + ":" + parser.isTrimResults()
+            + ":" + headerRows;
+        return key.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static boolean matches(ByteBuffer data, byte[] key) {
+        if (data.limit() < 12 + key.length || data.getLong(0) != MAGIC || data.getInt(8) != key.length) {
+            return false;
+        }
+        for (int n = 0; n < key.length; n++) {
+            if (data.get(12 + n) != key[n]) {
+                return false;
+            }
+        }
+        return isComplete(data);
+    }
+
+    /**
+     * Walks the layout described by the snapshot's header, so that a truncated or
+     * partly written snapshot is rebuilt rather than read past its end. Sections are
+     * written one after another, so each must start where the one before it ends and
+     * the last must end at the end of the file.
+     */
+    private static boolean isComplete(ByteBuffer data) {
+        long limit = data.limit();
+        long pos = skipKey(data);
+        if (pos + 4 > limit) {
+            return false;
+        }
+        int headerCount = data.getInt((int) pos);
+        pos += 4;
+        for (int h = 0; h < headerCount; h++) {
+            if (pos + 4 > limit) {
+                return false;
+            }
+            int fields = data.getInt((int) pos);
+            pos += 4;
+            for (int f = 0; f < fields; f++) {
+                if (pos + 4 > limit) {
+                    return false;
+                }
+                int length = data.getInt((int) pos);
+                if (length < 0) {
+                    return false;
+                }
+                pos += 4 + 2L * length;
+            }
+        }
+        if (headerCount < 0 || pos + 8 > limit) {
+            return false;
+        }
+        long records = data.getInt((int) pos);
+        int columnCount = data.getInt((int) pos + 4);
+        pos += 8;
+        if (records < 0 || columnCount < 0) {
+            return false;
+        }
+        long table = pos + 4 * records;
+        long section = table + 5L * columnCount;
+        if (section > limit) {
+            return false;
+        }
+        for (int c = 0; c < columnCount; c++, table += 5) {
+            int type = data.get((int) table);
+            if (type < 0 || type >= ColumnType.values().length || data.getInt((int) table + 1) != section) {
+                return false;
+            }
+            switch (ColumnType.values()[type]) {
+                case LONG:
+                    section += 8 * records;
+                    break;
+                case DICTIONARY:
+                    if (section + 4 > limit) {
+                        return false;
+                    }
+                    long size = data.getInt((int) section);
+                    long lastOffset = section + 4 + 4 * size;
+                    if (size < 0 || lastOffset + 4 > limit) {
+                        return false;
+                    }
+                    section = lastOffset + 4 + 2L * data.getInt((int) lastOffset) + 4 * records;
+                    break;
+                default:
+                    lastOffset = section + 4 * records;
+                    if (lastOffset + 4 > limit) {
+                        return false;
+                    }
+                    section = lastOffset + 4 + 2L * data.getInt((int) lastOffset);
+            }
+            if (section > limit) {
+                return false;
+            }
+        }
+        return section == limit;
+    }
+
+    private static int skipKey(ByteBuffer data) {
+        return 12 + data.getInt(8);
+    }
+
+    private static void write(Path csv, Charset charset, KissParser parser, int headerRows, KissSchema schema,
+                              byte[] key, Path sidecar) throws IOException {
+        Path dir = sidecar.toAbsolutePath().getParent();
+        String name = sidecar.getFileName().toString();
+        List<String[]> headers = new ArrayList<>();
+        Column[] columns = new Column[0];
+        int records = 0;
+        Spill spill = null;
+        Path temp = null;
+        try {
+            spill = new Spill(Files.createTempFile(dir, name, ".col"));
+            SpillStream fieldCounts = new SpillStream(spill);
+            DataOutputStream counts = new DataOutputStream(fieldCounts);
+            try (KissReader kr = new KissReader(Files.newBufferedReader(csv, charset), parser)) {
+                String[] header;
+                while (headers.size() < headerRows && (header = kr.readNext()) != null) {
+                    headers.add(header);
+                }
+                // each value goes straight to its column's blocks in the spill, so
+                // only the record being parsed is held
+                KissHeldFields held = new KissHeldFields();
+                while (true) {
+                    held.clear();
+                    if (kr.visitNext(held) == -1) {
+                        break;
+                    }
+                    int count = held.size();
+                    counts.writeInt(count);
+                    if (count > columns.length) {
+                        int old = columns.length;
+                        columns = Arrays.copyOf(columns, count);
+                        for (int c = old; c < columns.length; c++) {
+                            ColumnType hint = schema != null && c < schema.getColumnCount()
+                                ? schema.getColumn(c).getCacheType() : null;
+                            columns[c] = new Column(spill, hint);
+                            columns[c].addMissing(records);
+                        }
+                    }
+                    for (int c = 0; c < columns.length; c++) {
+                        columns[c].add(c < count ? held.field(c) : null);
+                    }
+                    records++;
+                }
+            }
+
+            temp = Files.createTempFile(dir, name, ".tmp");
+            try (OutputStream os = Files.newOutputStream(temp);
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os, 1 << 16))) {
+                out.writeLong(MAGIC);
+                out.writeInt(key.length);
+                out.write(key);
+                out.writeInt(headers.size());
+                for (String[] header : headers) {
+                    out.writeInt(header.length);
+                    for (String field : header) {
+                        out.writeInt(field.length());
+                        out.writeChars(field);
+                    }
+                }
+                out.writeInt(records);
+                out.writeInt(columns.length);
+                counts.close();
+                try (DataInputStream in = new DataInputStream(fieldCounts.open())) {
+                    for (int r = 0; r < records; r++) {
+                        out.writeInt(in.readInt());
+                    }
+                }
+                long section = out.size() + columns.length * 5L;
+                for (Column column : columns) {
+                    column.finish();
+                    if (section > Integer.MAX_VALUE) {
+                        throw new IOException("Snapshot of " + csv + " would be over 2GB");
+                    }
+                    out.writeByte(column.type.ordinal());
+                    out.writeInt((int) section);
+                    section += column.sectionSize();
+                }
+                if (section > Integer.MAX_VALUE) {
+                    throw new IOException("Snapshot of " + csv + " would be over 2GB");
+                }
+                for (Column column : columns) {
+                    column.write(out);
+                }
+            }
+            Files.move(temp, sidecar, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            if (spill != null) {
+                spill.close();
+            }
+            if (temp != null) {
+                Files.deleteIfExists(temp);
+            }
+        }
+    }
+
+    /**
+     * Collects the values of one column while the CSV file is parsed. Values are spilled
+     * as length prefixed chars, null as -1, and read back once the column's encoding is
+     * known.
+     */
+    private static final class Column {
+
+        final SpillStream spill;
+        final DataOutputStream values;
+        int size;
+        long chars;
+        boolean allLong = true;
+        Map<String, Integer> dictionary = new HashMap<>();
+        ColumnType type;
+
+        Column(Spill spill, ColumnType hint) {
+            this.spill = new SpillStream(spill);
+            this.values = new DataOutputStream(this.spill);
+            if (hint != null) {
+                // skip the checks for encodings the schema rules out
+                allLong = hint == ColumnType.LONG;
+                dictionary = hint == ColumnType.STRING ? null : dictionary;
+            }
+        }
+
+        void addMissing(int count) throws IOException {
+            for (int n = 0; n < count; n++) {
+                add(null);
+            }
+        }
+
+        void add(CharSequence value) throws IOException {
+            size++;
+            if (value == null) {
+                values.writeInt(-1);
+                return;
+            }
+            int length = value.length();
+            values.writeInt(length);
+            for (int n = 0; n < length; n++) {
+                values.writeChar(value.charAt(n));
+            }
+            chars += length;
+            if (allLong && !KissNumbers.isCanonicalLong(value)) {
+                allLong = false;
+            }
+            if (dictionary != null) {
+                dictionary.putIfAbsent(value.toString(), dictionary.size());
+                if (dictionary.size() > MAX_DICTIONARY) {
+                    dictionary = null;
+                }
+            }
+        }
+
+        void finish() throws IOException {
+            values.close();
+            if (allLong) {
+                type = ColumnType.LONG;
+            } else if (dictionary != null && dictionary.size() <= size / 2) {
+                type = ColumnType.DICTIONARY;
+            } else {
+                type = ColumnType.STRING;
+            }
+        }
+
+        long sectionSize() {
+            switch (type) {
+                case LONG:
+                    return size * 8L;
+                case DICTIONARY:
+                    long dictChars = 0;
+                    for (String s : dictionary.keySet()) {
+                        dictChars += s.length();
+                    }
+                    return 4 + (dictionary.size() + 1) * 4L + dictChars * 2 + size * 4L;
+                default:
+                    return (size + 1) * 4L + chars * 2;
+            }
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            switch (type) {
+                case LONG:
+                    try (Spilled in = new Spilled(spill.open())) {
+                        for (int n = 0; n < size; n++) {
+                            out.writeLong(in.next() == -1 ? 0 : in.toLong());
+                        }
+                    }
+                    break;
+                case DICTIONARY:
+                    String[] entries = new String[dictionary.size()];
+                    for (Map.Entry<String, Integer> e : dictionary.entrySet()) {
+                        entries[e.getValue()] = e.getKey();
+                    }
+                    out.writeInt(entries.length);
+                    int offset = 0;
+                    out.writeInt(0);
+                    for (String entry : entries) {
+                        offset += entry.length();
+                        out.writeInt(offset);
+                    }
+                    for (String entry : entries) {
+                        out.writeChars(entry);
+                    }
+                    try (Spilled in = new Spilled(spill.open())) {
+                        for (int n = 0; n < size; n++) {
+                            out.writeInt(in.next() == -1 ? 0 : dictionary.get(in.toString()));
+                        }
+                    }
+                    break;
+                default:
+                    // offsets first, then the chars, so the spill is read twice
+                    long end = 0;
+                    out.writeInt(0);
+                    try (Spilled in = new Spilled(spill.open())) {
+                        for (int n = 0; n < size; n++) {
+                            end += Math.max(0, in.next());
+                            out.writeInt((int) end);
+                        }
+                    }
+                    try (Spilled in = new Spilled(spill.open())) {
+                        for (int n = 0; n < size; n++) {
+                            for (int length = in.next(), c = 0; c < length; c++) {
+                                out.writeChar(in.chars[c]);
+                            }
+                        }
+                    }
+            }
+        }
+    }
+
+    /**
+     * The temporary file that all columns spill to. It is written in blocks at its end,
+     * and each column keeps the positions of its own blocks, so only one file is open
+     * however many columns there are.
+     */
+    private static final class Spill implements Closeable {
+
+        static final int BLOCK_SIZE = 1 << 12;
+
+        final Path path;
+        final FileChannel channel;
+        long end;
+
+        Spill(Path path) throws IOException {
+            this.path = path;
+            try {
+                this.channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            } catch (IOException ex) {
+                Files.deleteIfExists(path);
+                throw ex;
+            }
+        }
+
+        long append(byte[] block, int length) throws IOException {
+            long at = end;
+            ByteBuffer bb = ByteBuffer.wrap(block, 0, length);
+            while (bb.hasRemaining()) {
+                end += channel.write(bb, end);
+            }
+            return at;
+        }
+
+        void read(long position, ByteBuffer into) throws IOException {
+            while (into.hasRemaining()) {
+                if (channel.read(into, position + into.position()) == -1) {
+                    throw new EOFException("Spill file " + path + " is short");
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            try {
+                channel.close();
+            } catch (IOException ex) {
+                // best effort
+            }
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException ex) {
+                // best effort
+            }
+        }
+    }
+
+    /**
+     * One column's bytes in the spill. A block is buffered until it is full, and the
+     * last one is written on close, after which the bytes can be read back any number
+     * of times.
+     */
+    private static final class SpillStream extends OutputStream {
+
+        final Spill spill;
+        byte[] block = new byte[Spill.BLOCK_SIZE];
+        int count;
+        long[] blocks = new long[4];
+        int blockCount;
+        int lastLength;
+
+        SpillStream(Spill spill) {
+            this.spill = spill;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (count == block.length) {
+                flushBlock();
+            }
+            block[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (count == block.length) {
+                    flushBlock();
+                }
+                int n = Math.min(len, block.length - count);
+                System.arraycopy(b, off, block, count, n);
+                count += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        private void flushBlock() throws IOException {
+            if (blockCount == blocks.length) {
+                blocks = Arrays.copyOf(blocks, blockCount * 2);
+            }
+            blocks[blockCount++] = spill.append(block, count);
+            lastLength = count;
+            count = 0;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (block != null) {
+                if (count > 0) {
+                    flushBlock();
+                }
+                block = null;
+            }
+        }
+
+        InputStream open() {
+            return new SpillInput(this);
+        }
+    }
+
+    /**
+     * Reads one column's blocks back from the spill, in order.
+     */
+    private static final class SpillInput extends InputStream {
+
+        final SpillStream stream;
+        final ByteBuffer buf = ByteBuffer.allocate(Spill.BLOCK_SIZE);
+        int next;
+
+        SpillInput(SpillStream stream) {
+            this.stream = stream;
+            buf.flip();
+        }
+
+        private boolean fill() throws IOException {
+            if (next == stream.blockCount) {
+                return false;
+            }
+            buf.clear();
+            buf.limit(next == stream.blockCount - 1 ? stream.lastLength : Spill.BLOCK_SIZE);
+            stream.spill.read(stream.blocks[next++], buf);
+            buf.flip();
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return buf.hasRemaining() || fill() ? buf.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buf.hasRemaining() && !fill()) {
+                return -1;
+            }
+            int n = Math.min(len, buf.remaining());
+            buf.get(b, off, n);
+            return n;
+        }
+    }
+
+    /**
+     * Reads back the values of a column.
+     */
+    private static final class Spilled implements Closeable {
+
+        final DataInputStream in;
+        char[] chars = new char[64];
+        int length;
+
+        Spilled(InputStream spill) {
+            in = new DataInputStream(spill);
+        }
+
+        /**
+         * @return the length of the next value, or -1 if it is null.
+         */
+        int next() throws IOException {
+            length = in.readInt();
+            if (length > chars.length) {
+                chars = new char[Math.max(length, chars.length * 2)];
+            }
+            for (int n = 0; n < length; n++) {
+                chars[n] = in.readChar();
+            }
+            return length;
+        }
+
+        /**
+         * @return the value, which must be a canonical long.
+         */
+        long toLong() {
+            boolean negative = chars[0] == '-';
+            long v = 0;
+            for (int n = negative ? 1 : 0; n < length; n++) {
+                v = v * 10 - (chars[n] - '0');
+            }
+            return negative ? v : -v;
+        }
+
+        @Override
+        public String toString() {
+            return new String(chars, 0, length);
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /**
+     * Serves cached records through the KissReader API.
+     */
+    private static final class CachedReader extends KissReader {
+
+        private final KissColumnarCache cache;
+        private final KissField field = new KissField();
+        private final StringBuilder digits = new StringBuilder(20);
+        private int header;
+        private int next;
+
+        CachedReader(KissColumnarCache cache) {
+            super(null, cache.parser);
+            this.cache = cache;
+        }
+
+        @Override
+        public int visitNext(KissFieldVisitor visitor) {
+            if (header < cache.headers.length) {
+                String[] fields = cache.headers[header++];
+                for (int c = 0; c < fields.length; c++) {
+                    visitor.visit(c, field.set(fields[c], 0, fields[c].length()));
+                }
+                return fields.length;
+            }
+            if (next == cache.recordCount) {
+                return -1;
+            }
+            int record = next++;
+            int count = cache.getFieldCount(record);
+            for (int c = 0; c < count; c++) {
+                if (cache.types[c] == ColumnType.LONG) {
+                    digits.setLength(0);
+                    digits.append(cache.getLong(record, c));
+                    visitor.visit(c, field.set(digits, 0, digits.length()));
+                } else {
+                    String value = cache.getString(record, c);
+                    visitor.visit(c, field.set(value, 0, value.length()));
+                }
+            }
+            return count;
+        }
+
+        @Override
+        public KissCheckpoint checkpoint() {
+            throw new IllegalStateException("Checkpoints need a KissInput over a byte channel");
+        }
+
+        @Override
+        public void close() {
+            // nothing to release: the mapping is freed with the cache
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package github.footloosejava.kisscsv;
+
+import java.nio.CharBuffer;
+
+/**
+ * A view of a parsed field that is still in the parser's working buffer.
+ * <p>
+ * A field is only valid for the duration of the {@link KissFieldVisitor} or
+ * {@link KissFilter} call it is passed to. Nothing is copied unless
+ * {@link #toString()} is called, so keep the String and not the field.
+ */
+public final class KissField implements CharSequence {
+
+    private CharSequence buffer;
+    private int start;
+    private int end;
+    // known to hold no separator, quote or line end of the parser it came from
+    private boolean plain;
+
+    KissField() {
+    }
+
+    KissField set(StringBuilder sb, boolean trim, boolean plain) {
+        int s = 0;
+        int e = sb.length();
+        if (trim) {
+            // same whitespace determination as String.trim()
+            while ((s < e) && (sb.charAt(s) <= ' ')) {
+                s++;
+            }
+            while ((s < e) && (sb.charAt(e - 1) <= ' ')) {
+                e--;
+            }
+        }
+        return set(sb, s, e, plain);
+    }
+
+    KissField set(CharSequence buffer, int start, int end) {
+        return set(buffer, start, end, false);
+    }
+
+    KissField set(CharSequence buffer, int start, int end, boolean plain) {
+        this.buffer = buffer;
+        this.start = start;
+        this.end = end;
+        this.plain = plain;
+        return this;
+    }
+
+    /**
+     * @return true if the field was not quoted and holds no char that would need it, so
+     * it can be written back with the same separator and quote character as it is.
+     */
+    boolean isPlain() {
+        return plain;
+    }
+
+    void appendTo(StringBuilder sb) {
+        sb.append(buffer, start, end);
+    }
+
+    void getChars(char[] dst) {
+        if (buffer instanceof StringBuilder) {
+            ((StringBuilder) buffer).getChars(start, end, dst, 0);
+        } else if (buffer instanceof CharBuffer && ((CharBuffer) buffer).hasArray()) {
+            CharBuffer cb = (CharBuffer) buffer;
+            System.arraycopy(cb.array(), cb.arrayOffset() + cb.position() + start, dst, 0, end - start);
+        } else {
+            for (int n = start; n < end; n++) {
+                dst[n - start] = buffer.charAt(n);
+            }
+        }
+    }
+
+    @Override
+    public int length() {
+        return end - start;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= end - start) {
+            throw new IndexOutOfBoundsException("index " + index + ", length " + (end - start));
+        }
+        return buffer.charAt(start + index);
+    }
+
+    @Override
+    public CharSequence subSequence(int from, int to) {
+        if (from < 0 || to > end - start || from > to) {
+            throw new IndexOutOfBoundsException("from " + from + ", to " + to + ", length " + (end - start));
+        }
+        return buffer.subSequence(start + from, start + to);
+    }
+
+    /**
+     * @return true if the field is empty.
+     */
+    public boolean isEmpty() {
+        return start == end;
+    }
+
+    /**
+     * @param cs the chars to compare with.
+     * @return true if this field holds exactly the same chars.
+     */
+    public boolean contentEquals(CharSequence cs) {
+        return cs.length() == end - start && regionMatches(cs);
+    }
+
+    /**
+     * @param prefix the prefix to test for.
+     * @return true if this field starts with the given chars.
+     */
+    public boolean startsWith(CharSequence prefix) {
+        return prefix.length() <= end - start && regionMatches(prefix);
+    }
+
+    private boolean regionMatches(CharSequence cs) {
+        for (int n = 0, len = cs.length(); n < len; n++) {
+            if (buffer.charAt(start + n) != cs.charAt(n)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        if (start == 0 && end == buffer.length()) {
+            return buffer.toString();
+        }
+        return buffer.subSequence(start, end).toString();
+    }
+}
@@ -0,0 +1,15 @@
+package github.footloosejava.kisscsv;
+
+/**
+ * Receives each field of a record as it is parsed, without a String being created
+ * unless the visitor asks for one.
+ */
+@FunctionalInterface
+public interface KissFieldVisitor {
+
+    /**
+     * @param index the zero based index of the field in the record.
+     * @param field the field. Only valid for the duration of this call.
+     */
+    void visit(int index, KissField field);
+}
@@ -0,0 +1,57 @@
+package github.footloosejava.kisscsv;
+
+import java.util.function.Predicate;
+
+/**
+ * A test applied to one column of each record while it is being parsed.
+ * <p>
+ * As soon as the column fails the test, the parser stops building fields and only
+ * scans (quote-aware) for the end of the record, so rejected records cost very little.
+ * Records that are too short to have the column are rejected.
+ */
+public final class KissFilter {
+
+    private final int column;
+    private final Predicate<? super KissField> predicate;
+
+    /**
+     * @param column    the zero based index of the column to test.
+     * @param predicate the test. The field passed to it is only valid during the call.
+     */
+    public KissFilter(int column, Predicate<? super KissField> predicate) {
+        if (column < 0) {
+            throw new IllegalArgumentException("Column cannot be negative: " + column);
+        }
+        if (predicate == null) {
+            throw new IllegalArgumentException("Predicate cannot be null");
+        }
+        this.column = column;
+        this.predicate = predicate;
+    }
+
+    /**
+     * @param column the zero based index of the column to test.
+     * @param value  the value the column must equal.
+     * @return a filter accepting only records where the column equals the value.
+     */
+    public static KissFilter equalTo(int column, String value) {
+        return new KissFilter(column, field -> field.contentEquals(value));
+    }
+
+    /**
+     * @param column the zero based index of the column to test.
+     * @param prefix the prefix the column must start with.
+     * @return a filter accepting only records where the column starts with the prefix.
+     */
+    public static KissFilter startsWith(int column, String prefix) {
+        return new KissFilter(column, field -> field.startsWith(prefix));
+    }
+
+    public int getColumn() {
+        return column;
+    }
+
+    boolean test(KissField field) {
+        return predicate.test(field);
+    }
+}
@@ -0,0 +1,400 @@
+package github.footloosejava.kisscsv;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Follows a CSV file that is being appended to, like `tail -f`.
+ * <p>
+ * Only the bytes appended since the last look are read. Complete records are parsed
+ * and delivered; a trailing partial record is held back until its record end arrives.
+ * When idle the file is polled with a delay that backs off from
+ * {@link #MIN_POLL_MILLIS} to {@link #MAX_POLL_MILLIS}.
+ * <p>
+ * If the file shrinks it is read again from the start. If it is replaced (rotated),
+ * the rest of the old file is delivered, including a final record without a line end,
+ * and the new file is followed from its start. A replaced file is told apart by its
+ * file key, or where there are none, as on Windows, by its creation time and size.
+ * <p>
+ * A malformed record is skipped along with the rest of its line. The call that would
+ * have returned it throws a {@link KissException} instead, once, and the records after
+ * it are delivered as usual. A quote that is never closed holds records back until
+ * {@link #MAX_PENDING} bytes are waiting, and is then given up on at a line end.
+ * <p>
+ * The charset must be UTF-8 or an ASCII compatible single byte charset. Records are
+ * taken by one thread; {@link #close()} can be called from any thread.
+ */
+public final class KissFollower implements Closeable {
+
+    public static final long MIN_POLL_MILLIS = 10;
+    public static final long MAX_POLL_MILLIS = 1000;
+
+    /**
+     * The most bytes held back waiting for a record end. More than the mark limit of a
+     * {@link KissInput} in chars, so a record this long can only be malformed.
+     */
+    public static final int MAX_PENDING = 1 << 22;
+
+    private static final int READ_SIZE = 1 << 20;
+
+    private final Path path;
+    private final KissParser parser;
+    private final KissBoundaryScanner scanner;
+    private final ArrayDeque<Ready> ready = new ArrayDeque<>();
+    private final PendingChannel source = new PendingChannel();
+    private final KissInput input;
+    private final KissHeldFields held = new KissHeldFields();
+
+    private FileChannel channel;
+    private Object fileKey;
+    private FileTime creationTime;
+    private long startPosition;
+    private long startRecordNumber;
+
+    // pending holds the bytes from position on that have been read but not parsed,
+    // and position is always a record boundary
+    private long position;
+    private long recordNumber;
+    private byte[] pending = new byte[1 << 16];
+    private int pendingLength;
+
+    private long deliveredPosition;
+    private long deliveredRecordNumber;
+    private long delay = MIN_POLL_MILLIS;
+    private volatile boolean closed;
+
+    /**
+     * Follows a file from its start.
+     *
+     * @param path      the CSV file. It does not need to exist yet.
+     * @param charset   UTF-8 or an ASCII compatible single byte charset.
+     * @param csvParser the parser to use to parse input
+     */
+    public KissFollower(Path path, Charset charset, KissParser csvParser) {
+        this(path, charset, csvParser, null);
+    }
+
+    /**
+     * Follows a file from a checkpoint, such as one taken with {@link #checkpoint()}
+     * before a restart.
+     *
+     * @param path       the CSV file. It does not need to exist yet.
+     * @param charset    UTF-8 or an ASCII compatible single byte charset.
+     * @param csvParser  the parser to use to parse input
+     * @param checkpoint where to start. Can be null to start at the beginning.
+     */
+    public KissFollower(Path path, Charset charset, KissParser csvParser, KissCheckpoint checkpoint) {
+        this.path = path;
+        this.parser = csvParser;
+        this.scanner = new KissBoundaryScanner(csvParser);
+        this.input = new KissInput(source, charset);
+        this.input.boundRecordsToMarkLimit();
+        this.startPosition = checkpoint == null ? 0 : checkpoint.getPosition();
+        this.startRecordNumber = checkpoint == null ? 1 : checkpoint.getRecordNumber();
+        this.deliveredPosition = startPosition;
+        this.deliveredRecordNumber = startRecordNumber;
+    }
+
+    /**
+     * Returns the next record if one is available, looking at the file once if none
+     * has been read yet.
+     *
+     * @return the next record, or null if there is none yet.
+     */
+    public String[] poll() {
+        if (ready.isEmpty() && !closed) {
+            readMore();
+        }
+        return deliver();
+    }
+
+    /**
+     * Waits for the next record.
+     *
+     * @param timeout how long to wait.
+     * @param unit    the unit of the timeout.
+     * @return the next record, or null if none arrived in time or the follower was closed.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public String[] poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (ready.isEmpty() && !closed) {
+            if (readMore()) {
+                delay = MIN_POLL_MILLIS;
+                break;
+            }
+            long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remaining <= 0) {
+                break;
+            }
+            Thread.sleep(Math.min(delay, remaining));
+            delay = Math.min(delay * 2, MAX_POLL_MILLIS);
+        }
+        return deliver();
+    }
+
+    /**
+     * Waits for the next record.
+     *
+     * @return the next record, or null once the follower is closed.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public String[] take() throws InterruptedException {
+        return poll(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Delivers records to the consumer as they arrive, on the calling thread, until
+     * the follower is closed.
+     *
+     * @param consumer called with each record.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public void follow(Consumer<String[]> consumer) throws InterruptedException {
+        String[] record;
+        while ((record = take()) != null) {
+            consumer.accept(record);
+        }
+    }
+
+    /**
+     * @return the position and number of the next record to be delivered.
+     */
+    public KissCheckpoint checkpoint() {
+        return new KissCheckpoint(deliveredPosition, deliveredRecordNumber);
+    }
+
+    private String[] deliver() {
+        Ready r = ready.poll();
+        if (r == null) {
+            return null;
+        }
+        deliveredPosition = r.end;
+        deliveredRecordNumber = r.recordNumber + 1;
+        if (r.error != null) {
+            throw r.error;
+        }
+        return r.record;
+    }
+
+    /**
+     * @return true if any records were parsed.
+     */
+    private boolean readMore() {
+        try {
+            if (channel == null && !open()) {
+                return false;
+            }
+            long end = position + pendingLength;
+            long size = channel.size();
+            if (size < end) {
+                // truncated: start again
+                restart(0, 1);
+                end = 0;
+            }
+            if (size == end) {
+                return rotated() && finish();
+            }
+            int n = (int) Math.min(size - end, READ_SIZE);
+            if (pending.length - pendingLength < n) {
+                pending = Arrays.copyOf(pending, Math.max(pending.length * 2, pendingLength + n));
+            }
+            ByteBuffer bb = ByteBuffer.wrap(pending, pendingLength, n);
+            while (bb.hasRemaining() && channel.read(bb, end + bb.position() - pendingLength) > 0) {
+                // keep reading
+            }
+            int scanFrom = pendingLength;
+            pendingLength = bb.position();
+            int cut = scanner.lastBoundary(pending, scanFrom, pendingLength);
+            if (cut == -1 && pendingLength >= MAX_PENDING) {
+                cut = KissBoundaryScanner.lastLineEnd(pending, pendingLength);
+                if (cut > 0) {
+                    // no record end in all that: give up on the open quote and
+                    // scan what is left after the cut again from outside quotes
+                    scanner.leaveQuotes();
+                    scanner.lastBoundary(pending, cut, pendingLength);
+                }
+            }
+            if (cut <= 0) {
+                return false;
+            }
+            parse(cut);
+            return true;
+        } catch (ClosedChannelException ex) {
+            return false;
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private boolean open() throws IOException {
+        try {
+            channel = FileChannel.open(path, StandardOpenOption.READ);
+        } catch (NoSuchFileException ex) {
+            return false;
+        }
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        fileKey = attributes.fileKey();
+        creationTime = attributes.creationTime();
+        restart(startPosition, startRecordNumber);
+        startPosition = 0;
+        startRecordNumber = 1;
+        return true;
+    }
+
+    private void restart(long pos, long number) {
+        position = pos;
+        recordNumber = number;
+        pendingLength = 0;
+        scanner.reset();
+        if (ready.isEmpty()) {
+            deliveredPosition = pos;
+            deliveredRecordNumber = number;
+        }
+    }
+
+    private boolean rotated() throws IOException {
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (NoSuchFileException ex) {
+            return true;
+        }
+        if (fileKey != null) {
+            return !fileKey.equals(attributes.fileKey());
+        }
+        // no file keys: a new file was created after the open one, or is shorter than it
+        return !creationTime.equals(attributes.creationTime()) || attributes.size() < channel.size();
+    }
+
+    /**
+     * Delivers what is left of a rotated file and moves on to its replacement.
+     */
+    private boolean finish() throws IOException {
+        long end = position + pendingLength;
+        if (channel.size() > end) {
+            // it was still written to before being replaced
+            return false;
+        }
+        boolean parsed = pendingLength > 0;
+        if (parsed) {
+            parse(pendingLength);
+        }
+        channel.close();
+        channel = null;
+        return parsed;
+    }
+
+    /**
+     * Parses the records before the cut. They are only queued, and the cut only taken
+     * from pending, once all of them have parsed, so nothing is delivered twice.
+     */
+    private void parse(int cut) throws IOException {
+        source.offset = 0;
+        source.end = cut;
+        input.restart();
+        List<Ready> staged = new ArrayList<>();
+        long number = recordNumber;
+        while (true) {
+            input.markRecord();
+            held.clear();
+            try {
+                if (parser.parseNext(input, held, null) == -1) {
+                    break;
+                }
+            } catch (KissException ex) {
+                KissReader.skipMalformed(input);
+                KissException error = new KissException(ex.getMessage() + " (rec no. " + number + ")", ex);
+                staged.add(new Ready(null, error, position + input.position(), number++));
+                continue;
+            }
+            String[] record = new String[held.size()];
+            for (int n = 0; n < record.length; n++) {
+                record[n] = held.field(n).toString();
+            }
+            staged.add(new Ready(record, null, position + input.position(), number++));
+        }
+        ready.addAll(staged);
+        recordNumber = number;
+        System.arraycopy(pending, cut, pending, 0, pendingLength - cut);
+        pendingLength -= cut;
+        position += cut;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            FileChannel c = channel;
+            if (c != null) {
+                c.close();
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Serves the pending bytes before a cut to the input, so one input is reused for
+     * every parse.
+     */
+    private final class PendingChannel implements ReadableByteChannel {
+
+        int offset;
+        int end;
+
+        @Override
+        public int read(ByteBuffer dst) {
+            if (offset == end) {
+                return -1;
+            }
+            int n = Math.min(dst.remaining(), end - offset);
+            dst.put(pending, offset, n);
+            offset += n;
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+            // the pending bytes belong to the follower
+        }
+    }
+
+    private static final class Ready {
+
+        final String[] record;
+        final KissException error;
+        final long end;
+        final long recordNumber;
+
+        Ready(String[] record, KissException error, long end, long recordNumber) {
+            this.record = record;
+            this.error = error;
+            this.end = end;
+            this.recordNumber = recordNumber;
+        }
+    }
+}
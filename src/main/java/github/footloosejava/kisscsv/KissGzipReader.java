@@ -0,0 +1,410 @@
+package github.footloosejava.kisscsv;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.io.SequenceInputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * A reader of gzip compressed CSV data (`.csv.gz`) for use with {@link KissReader}.
+ * <p>
+ * Decompression and character decoding run on a background thread which fills large
+ * char buffers and hands them to the parser through a bounded queue, so inflating and
+ * parsing overlap instead of running one after the other.
+ * <p>
+ * Multi-member files whose members record their own compressed size (the BGZF `BC`
+ * extra field written by bgzip and similar tools) have their members inflated in
+ * parallel. Any other gzip data is inflated sequentially on the background thread.
+ * <p>
+ * Like the parser, this reader is not meant to be shared between consuming threads.
+ */
+public final class KissGzipReader extends Reader {
+
+    public static final int DEFAULT_BUFFER_SIZE = 1 << 18;
+    public static final int DEFAULT_QUEUE_DEPTH = 4;
+
+    private static final char[] END = new char[0];
+
+    private final InputStream source;
+    private final BlockingQueue<Chunk> filled;
+    private final BlockingQueue<char[]> empty;
+    private final Thread producer;
+
+    private char[] buf = END;
+    private int pos;
+    private int limit;
+    private boolean eof;
+    private volatile boolean closed;
+
+    /**
+     * Reads UTF-8 encoded gzip data from the given file.
+     *
+     * @param path the gzip compressed CSV file.
+     * @throws IOException if the file cannot be opened.
+     */
+    public KissGzipReader(Path path) throws IOException {
+        this(path, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param path    the gzip compressed CSV file.
+     * @param charset the character set of the uncompressed data.
+     * @throws IOException if the file cannot be opened.
+     */
+    public KissGzipReader(Path path, Charset charset) throws IOException {
+        this(Files.newInputStream(path), charset);
+    }
+
+    /**
+     * Reads UTF-8 encoded gzip data from the given stream.
+     *
+     * @param in the gzip compressed source. It is closed when this reader is closed.
+     */
+    public KissGzipReader(InputStream in) {
+        this(in, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param in      the gzip compressed source. It is closed when this reader is closed.
+     * @param charset the character set of the uncompressed data.
+     */
+    public KissGzipReader(InputStream in, Charset charset) {
+        this(in, charset, DEFAULT_BUFFER_SIZE, DEFAULT_QUEUE_DEPTH);
+    }
+
+    /**
+     * @param in         the gzip compressed source. It is closed when this reader is closed.
+     * @param charset    the character set of the uncompressed data.
+     * @param bufferSize the size in chars of each buffer handed to the parser.
+     * @param queueDepth the number of decoded buffers allowed to wait for the parser.
+     */
+    public KissGzipReader(InputStream in, Charset charset, int bufferSize, int queueDepth) {
+        if (bufferSize < 1 || queueDepth < 1) {
+            throw new IllegalArgumentException("Buffer size and queue depth must be positive");
+        }
+        this.source = in;
+        this.filled = new ArrayBlockingQueue<>(queueDepth);
+        // two more buffers than the queue holds: the one being parsed and the one being filled
+        this.empty = new ArrayBlockingQueue<>(queueDepth + 2);
+        for (int n = 0; n < queueDepth + 2; n++) {
+            empty.add(new char[bufferSize]);
+        }
+        this.producer = new Thread(() -> produce(charset), "kisscsv-gzip");
+        this.producer.setDaemon(true);
+        this.producer.start();
+    }
+
+    private void produce(Charset charset) {
+        try (Reader decoded = new InputStreamReader(
+            new MemberInflaterStream(new BufferedInputStream(source, 1 << 16)), charset)) {
+            while (!closed) {
+                char[] chunk = empty.take();
+                int n = 0;
+                int r;
+                while (n < chunk.length && (r = decoded.read(chunk, n, chunk.length - n)) != -1) {
+                    n += r;
+                }
+                if (n > 0) {
+                    filled.put(new Chunk(chunk, n, null));
+                }
+                if (n < chunk.length) {
+                    filled.put(new Chunk(END, -1, null));
+                    return;
+                }
+            }
+        } catch (InterruptedException ex) {
+            // closed by the consumer
+        } catch (IOException | RuntimeException ex) {
+            if (!closed) {
+                try {
+                    filled.put(new Chunk(END, -1, ex));
+                } catch (InterruptedException ie) {
+                    // closed by the consumer
+                }
+            }
+        }
+    }
+
+    private boolean fill() throws IOException {
+        if (eof) {
+            return false;
+        }
+        if (closed) {
+            throw new IOException("Reader closed");
+        }
+        if (buf != END) {
+            empty.offer(buf);
+        }
+        final Chunk chunk;
+        try {
+            chunk = filled.take();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for decompressed data");
+        }
+        buf = chunk.chars;
+        pos = 0;
+        limit = Math.max(chunk.length, 0);
+        if (chunk.error != null) {
+            eof = true;
+            throw new IOException("Failed to decompress gzip data: " + chunk.error.getMessage(), chunk.error);
+        }
+        if (chunk.length == -1) {
+            eof = true;
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (pos < limit || fill()) {
+            return buf[pos++];
+        }
+        return -1;
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (pos >= limit && !fill()) {
+            return -1;
+        }
+        int n = Math.min(len, limit - pos);
+        System.arraycopy(buf, pos, cbuf, off, n);
+        pos += n;
+        return n;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        producer.interrupt();
+        source.close();
+    }
+
+    private static final class Chunk {
+
+        final char[] chars;
+        final int length;
+        final Exception error;
+
+        Chunk(char[] chars, int length, Exception error) {
+            this.chars = chars;
+            this.length = length;
+            this.error = error;
+        }
+    }
+
+    /**
+     * Inflates gzip members. While members carry a BGZF block size they are sliced off
+     * the source and inflated in parallel, in order. The first member without one hands
+     * the remainder of the source to a sequential {@link GZIPInputStream}.
+     */
+    private static final class MemberInflaterStream extends InputStream {
+
+        private static final int FEXTRA = 4;
+        private static final int HEADER_SIZE = 10;
+        private static final int TRAILER_SIZE = 8;
+        // BGZF blocks inflate to at most 64KB
+        private static final int MAX_INFLATED_SIZE = 1 << 16;
+
+        private final InputStream in;
+        private final int inFlight = Math.max(2, ForkJoinPool.commonPool().getParallelism() * 2);
+        private final ArrayDeque<Future<byte[]>> pending = new ArrayDeque<>();
+        private InputStream sequential;
+        private boolean sourceDone;
+        private byte[] current = new byte[0];
+        private int pos;
+
+        MemberInflaterStream(InputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (pos < current.length || next()) {
+                return current[pos++] & 0xFF;
+            }
+            return sequential != null ? sequential.read() : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (pos >= current.length && !next()) {
+                return sequential != null ? sequential.read(b, off, len) : -1;
+            }
+            int n = Math.min(len, current.length - pos);
+            System.arraycopy(current, pos, b, off, n);
+            pos += n;
+            return n;
+        }
+
+        private boolean next() throws IOException {
+            try {
+                do {
+                    while (pending.size() < inFlight && !sourceDone) {
+                        submitNextMember();
+                    }
+                    if (pending.isEmpty()) {
+                        return false;
+                    }
+                    current = pending.removeFirst().get();
+                    pos = 0;
+                } while (current.length == 0);
+                return true;
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted inflating gzip member");
+            } catch (ExecutionException ex) {
+                Throwable cause = ex.getCause();
+                throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+            }
+        }
+
+        private void submitNextMember() throws IOException {
+            byte[] header = new byte[HEADER_SIZE];
+            int first = readUpTo(header, 0, HEADER_SIZE);
+            if (first == 0) {
+                sourceDone = true;
+                return;
+            }
+            if (first < HEADER_SIZE || (header[0] & 0xFF) != 0x1F || (header[1] & 0xFF) != 0x8B
+                || header[2] != 8 || (header[3] & 0xFF) != FEXTRA) {
+                handOff(header, first);
+                return;
+            }
+            byte[] xlenBytes = new byte[2];
+            readFully(xlenBytes, 0, 2);
+            int xlen = le16(xlenBytes, 0);
+            byte[] extra = new byte[xlen];
+            readFully(extra, 0, xlen);
+
+            int blockSize = -1;
+            for (int n = 0; n + 4 <= xlen; n += 4 + le16(extra, n + 2)) {
+                if (extra[n] == 'B' && extra[n + 1] == 'C' && le16(extra, n + 2) == 2 && n + 6 <= xlen) {
+                    blockSize = le16(extra, n + 4) + 1;
+                    break;
+                }
+            }
+            int dataSize = blockSize - HEADER_SIZE - 2 - xlen - TRAILER_SIZE;
+            if (blockSize == -1 || dataSize < 0) {
+                byte[] consumed = new byte[HEADER_SIZE + 2 + xlen];
+                System.arraycopy(header, 0, consumed, 0, HEADER_SIZE);
+                System.arraycopy(xlenBytes, 0, consumed, HEADER_SIZE, 2);
+                System.arraycopy(extra, 0, consumed, HEADER_SIZE + 2, xlen);
+                handOff(consumed, consumed.length);
+                return;
+            }
+            byte[] data = new byte[dataSize + TRAILER_SIZE];
+            readFully(data, 0, data.length);
+            pending.addLast(ForkJoinPool.commonPool().submit(() -> inflate(data, dataSize)));
+        }
+
+        private void handOff(byte[] consumed, int length) throws IOException {
+            sourceDone = true;
+            sequential = new GZIPInputStream(
+                new SequenceInputStream(new ByteArrayInputStream(consumed, 0, length), in), 1 << 16);
+        }
+
+        private static byte[] inflate(byte[] data, int dataSize) throws IOException {
+            long expectedCrc = le32(data, dataSize);
+            long isize = le32(data, dataSize + 4);
+            if (isize > MAX_INFLATED_SIZE) {
+                // checked before allocating, as a corrupt size could ask for up to 4GB
+                throw new ZipException("Corrupt gzip member: inflated size " + isize + " is over " + MAX_INFLATED_SIZE);
+            }
+            int size = (int) isize;
+            byte[] out = new byte[size];
+            Inflater inflater = new Inflater(true);
+            try {
+                inflater.setInput(data, 0, dataSize);
+                int n = 0;
+                while (n < size) {
+                    int r = inflater.inflate(out, n, size - n);
+                    if (r == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                        break;
+                    }
+                    n += r;
+                }
+                if (n != size) {
+                    throw new ZipException("Corrupt gzip member: inflated " + n + " of " + size + " bytes");
+                }
+            } catch (DataFormatException ex) {
+                throw new ZipException("Corrupt gzip member: " + ex.getMessage());
+            } finally {
+                inflater.end();
+            }
+            CRC32 crc = new CRC32();
+            crc.update(out, 0, size);
+            if (crc.getValue() != expectedCrc) {
+                throw new ZipException("Corrupt gzip member: CRC mismatch");
+            }
+            return out;
+        }
+
+        private int readUpTo(byte[] b, int off, int len) throws IOException {
+            int n = 0;
+            int r;
+            while (n < len && (r = in.read(b, off + n, len - n)) != -1) {
+                n += r;
+            }
+            return n;
+        }
+
+        private void readFully(byte[] b, int off, int len) throws IOException {
+            if (readUpTo(b, off, len) < len) {
+                throw new EOFException("Unexpected end of gzip data");
+            }
+        }
+
+        private static int le16(byte[] b, int off) {
+            return (b[off] & 0xFF) | (b[off + 1] & 0xFF) << 8;
+        }
+
+        private static long le32(byte[] b, int off) {
+            return (le16(b, off) | (long) le16(b, off + 2) << 16) & 0xFFFFFFFFL;
+        }
+
+        @Override
+        public void close() throws IOException {
+            for (Future<byte[]> f : pending) {
+                f.cancel(true);
+            }
+            pending.clear();
+            if (sequential != null) {
+                sequential.close();
+            } else {
+                in.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package github.footloosejava.kisscsv;
+
+import java.util.Arrays;
+
+/**
+ * Fields of a record held back as chars until it is known the record should be
+ * passed on, such as while waiting for a filtered column or for the end of a record
+ * that might turn out to be malformed.
+ */
+final class KissHeldFields implements KissFieldVisitor {
+
+    private final StringBuilder chars = new StringBuilder();
+    private final KissField field = new KissField();
+    private int[] ends = new int[8];
+    private boolean[] plain = new boolean[8];
+    private int size;
+    private boolean released;
+
+    @Override
+    public void visit(int index, KissField f) {
+        f.appendTo(chars);
+        if (size == ends.length) {
+            ends = Arrays.copyOf(ends, size * 2);
+            plain = Arrays.copyOf(plain, size * 2);
+        }
+        plain[size] = f.isPlain();
+        ends[size++] = chars.length();
+    }
+
+    void release(KissFieldVisitor visitor) {
+        released = true;
+        int start = 0;
+        for (int n = 0; n < size; n++) {
+            visitor.visit(n, field.set(chars, start, ends[n], plain[n]));
+            start = ends[n];
+        }
+    }
+
+    /**
+     * @return the number of fields held.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return a view of a held field, valid until the next call.
+     */
+    KissField field(int n) {
+        return field.set(chars, n == 0 ? 0 : ends[n - 1], ends[n], plain[n]);
+    }
+
+    boolean isReleased() {
+        return released;
+    }
+
+    void clear() {
+        chars.setLength(0);
+        size = 0;
+        released = false;
+    }
+}
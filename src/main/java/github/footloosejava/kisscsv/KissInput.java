@@ -0,0 +1,337 @@
+package github.footloosejava.kisscsv;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A buffered, unsynchronized source for {@link KissReader} that knows its position in
+ * the underlying input.
+ * <p>
+ * Over a byte channel the position is a byte offset, so it can be used to seek back
+ * into a file. This requires UTF-8 or a single byte charset, and malformed input is
+ * reported rather than replaced so that offsets stay exact. Over a Reader the
+ * position is a char offset.
+ * <p>
+ * The start of the current record can be marked. Chars from the mark on are retained
+ * across buffer refills, up to a limit, so the raw text of a record is available after
+ * it has been parsed.
+ */
+public final class KissInput extends Reader {
+
+    public static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+    public static final int DEFAULT_MARK_LIMIT = 1 << 20;
+
+    private final Reader reader;
+    private final ReadableByteChannel channel;
+    private final CharsetDecoder decoder;
+    private final ByteBuffer bytes;
+    private final boolean utf8;
+    private final int markLimit;
+
+    private char[] buf;
+    private int pos;
+    private int limit;
+    private boolean eof;
+    private boolean channelEof;
+    private boolean flushed;
+
+    private int mark = -1;
+    private long markPosition;
+    private boolean boundRecords;
+    private boolean skipping;
+
+    // the position in the source of buf[cacheIndex]. Only ever moves forward,
+    // except on reset, so each char's width is counted once.
+    private int cacheIndex;
+    private long cachePosition;
+
+    /**
+     * Positions are char offsets into the reader.
+     *
+     * @param reader the reader to an underlying CSV source.
+     */
+    public KissInput(Reader reader) {
+        this(reader, null, null, DEFAULT_BUFFER_SIZE, DEFAULT_MARK_LIMIT);
+    }
+
+    /**
+     * Positions are byte offsets into the channel. For a seekable channel, such as a
+     * FileChannel, they count from the start of the channel, otherwise from where the
+     * channel was when this input was created.
+     *
+     * @param channel the channel to an underlying CSV source.
+     * @param charset UTF-8 or a single byte charset.
+     */
+    public KissInput(ReadableByteChannel channel, Charset charset) {
+        this(null, channel, charset, DEFAULT_BUFFER_SIZE, DEFAULT_MARK_LIMIT);
+    }
+
+    /**
+     * @param channel    the channel to an underlying CSV source.
+     * @param charset    UTF-8 or a single byte charset.
+     * @param bufferSize the initial buffer size in chars, and the byte buffer size.
+     * @param markLimit  the number of chars retained after a mark before it is dropped.
+     */
+    public KissInput(ReadableByteChannel channel, Charset charset, int bufferSize, int markLimit) {
+        this(null, channel, charset, bufferSize, markLimit);
+    }
+
+    private KissInput(Reader reader, ReadableByteChannel channel, Charset charset, int bufferSize, int markLimit) {
+        if (bufferSize < 2) {
+            throw new IllegalArgumentException("Buffer size must be at least 2");
+        }
+        this.reader = reader;
+        this.channel = channel;
+        this.markLimit = markLimit;
+        this.buf = new char[bufferSize];
+        if (channel != null) {
+            this.utf8 = StandardCharsets.UTF_8.equals(charset);
+            if (!utf8 && charset.newEncoder().maxBytesPerChar() != 1.0f) {
+                throw new IllegalArgumentException("Byte positions need UTF-8 or a single byte charset, not " + charset);
+            }
+            this.decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+            this.bytes = ByteBuffer.allocate(bufferSize);
+            this.bytes.flip();
+            if (channel instanceof SeekableByteChannel) {
+                try {
+                    this.cachePosition = ((SeekableByteChannel) channel).position();
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            }
+        } else {
+            this.utf8 = false;
+            this.decoder = null;
+            this.bytes = null;
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (pos < limit || fill()) {
+            return buf[pos++];
+        }
+        return -1;
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (pos >= limit && !fill()) {
+            return -1;
+        }
+        int n = Math.min(len, limit - pos);
+        System.arraycopy(buf, pos, cbuf, off, n);
+        pos += n;
+        return n;
+    }
+
+    /**
+     * @return the position in the source of the next char to be read.
+     */
+    public long position() {
+        advanceCache(pos);
+        return cachePosition;
+    }
+
+    /**
+     * @return true if positions are byte offsets, because this input is over a byte channel.
+     */
+    boolean hasBytePositions() {
+        return channel != null;
+    }
+
+    /**
+     * Marks the next char to be read as the start of a record.
+     */
+    public void markRecord() {
+        advanceCache(pos);
+        mark = pos;
+        markPosition = cachePosition;
+    }
+
+    /**
+     * @return the position in the source of the mark.
+     */
+    public long markedPosition() {
+        return markPosition;
+    }
+
+    /**
+     * @return the chars read since the mark, or null if there is no mark or more than
+     * the mark limit has been read since.
+     */
+    public String markedText() {
+        return mark < 0 ? null : new String(buf, mark, pos - mark);
+    }
+
+    /**
+     * Moves back to the mark, so the chars since it are read again.
+     *
+     * @return false if there is no mark, or more than the mark limit has been read since.
+     */
+    public boolean resetToMark() {
+        if (mark < 0) {
+            return false;
+        }
+        pos = mark;
+        cacheIndex = mark;
+        cachePosition = markPosition;
+        return true;
+    }
+
+    /**
+     * Makes reading more than the mark limit past the mark fail with a KissException,
+     * instead of dropping the mark, so a malformed record can always be gone back to.
+     */
+    void boundRecordsToMarkLimit() {
+        boundRecords = true;
+    }
+
+    /**
+     * Moves back to the mark, if it is still held, and on past the end of its line.
+     */
+    void skipLineFromMark() throws IOException {
+        resetToMark();
+        skipping = true;
+        try {
+            int r;
+            while ((r = read()) != -1 && r != '\n') {
+                // skip
+            }
+        } finally {
+            skipping = false;
+        }
+    }
+
+    /**
+     * Drops everything buffered and starts reading the channel again, so one input can
+     * be reused over a channel whose content is replaced. Positions count from here.
+     */
+    void restart() {
+        pos = 0;
+        limit = 0;
+        eof = false;
+        channelEof = false;
+        flushed = false;
+        mark = -1;
+        markPosition = 0;
+        cacheIndex = 0;
+        cachePosition = 0;
+        if (decoder != null) {
+            decoder.reset();
+            bytes.clear();
+            bytes.flip();
+        }
+    }
+
+    private void advanceCache(int index) {
+        if (cacheIndex >= index) {
+            return;
+        }
+        if (channel == null || !utf8) {
+            cachePosition += index - cacheIndex;
+        } else {
+            long p = cachePosition;
+            for (int n = cacheIndex; n < index; n++) {
+                char c = buf[n];
+                // a surrogate pair is 4 bytes, so 2 for each half
+                p += c < 0x80 ? 1 : c < 0x800 || Character.isSurrogate(c) ? 2 : 3;
+            }
+            cachePosition = p;
+        }
+        cacheIndex = index;
+    }
+
+    private boolean fill() throws IOException {
+        if (eof) {
+            return false;
+        }
+        if (mark >= 0 && pos - mark > markLimit) {
+            if (boundRecords && !skipping) {
+                throw new KissException("Record is longer than the mark limit of " + markLimit + " chars");
+            }
+            mark = -1;
+        }
+        int keep = mark >= 0 ? mark : pos;
+        advanceCache(keep);
+        if (keep > 0) {
+            System.arraycopy(buf, keep, buf, 0, limit - keep);
+            limit -= keep;
+            pos -= keep;
+            cacheIndex -= keep;
+            if (mark >= 0) {
+                mark -= keep;
+            }
+        }
+        if (buf.length - limit < 2) {
+            buf = Arrays.copyOf(buf, buf.length * 2);
+        }
+        int n = channel == null ? readChars() : decodeChars();
+        if (n <= 0) {
+            eof = true;
+            return false;
+        }
+        limit += n;
+        return true;
+    }
+
+    private int readChars() throws IOException {
+        int n;
+        do {
+            n = reader.read(buf, limit, buf.length - limit);
+        } while (n == 0);
+        return n;
+    }
+
+    private int decodeChars() throws IOException {
+        if (flushed) {
+            return -1;
+        }
+        CharBuffer out = CharBuffer.wrap(buf, limit, buf.length - limit);
+        while (true) {
+            CoderResult result = decoder.decode(bytes, out, channelEof);
+            if (result.isError()) {
+                result.throwException();
+            }
+            if (out.position() > limit) {
+                break;
+            }
+            if (channelEof) {
+                decoder.flush(out);
+                flushed = true;
+                break;
+            }
+            bytes.compact();
+            if (channel.read(bytes) == -1) {
+                channelEof = true;
+            }
+            bytes.flip();
+        }
+        return out.position() - limit;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+        } else {
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,323 @@
+package github.footloosejava.kisscsv;
+
+import java.nio.CharBuffer;
+import java.util.Arrays;
+
+/**
+ * An index of the records of a CSV file by a key column, for looking up or joining
+ * records of another file against it.
+ * <p>
+ * Records are packed into pages of chars: a small header of field ends followed by
+ * the field chars, so an indexed record costs little more than its text. The index is
+ * an open addressing table of record addresses and key hashes. Keys are hashed and
+ * compared straight from the parser's buffer, and joined records are written field by
+ * field from the pages, so neither a lookup nor a join makes a String.
+ * <p>
+ * Keys are unique: the first record with a key is kept and later ones are counted as
+ * duplicates. A record without the key column has the empty key. A built lookup is
+ * read-only and can be used by any number of threads.
+ */
+public final class KissLookup {
+
+    private static final int PAGE_SIZE = 1 << 20;
+
+    private final int keyColumn;
+
+    private char[][] pages = new char[4][];
+    private CharBuffer[] views = new CharBuffer[4];
+    private int pageCount;
+    private int pageUsed = PAGE_SIZE;
+
+    // address + 1 of each record, with the page in the high int, or 0 for an empty slot
+    private long[] table = new long[64];
+    private int[] hashes = new int[64];
+    private int size;
+    private long duplicates;
+    private int maxFields;
+
+    private KissLookup(int keyColumn) {
+        this.keyColumn = keyColumn;
+    }
+
+    /**
+     * Indexes the rest of the records of a reader. The reader is not closed.
+     *
+     * @param reader    the records to index.
+     * @param keyColumn the zero based column to index by.
+     * @return the lookup.
+     */
+    public static KissLookup build(KissReader reader, int keyColumn) {
+        if (keyColumn < 0) {
+            throw new IllegalArgumentException("Column must be zero or more");
+        }
+        KissLookup lookup = new KissLookup(keyColumn);
+        Staged record = new Staged();
+        while (record.next(reader)) {
+            lookup.add(record);
+        }
+        return lookup;
+    }
+
+    /**
+     * @return the number of records indexed.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the number of records left out because an earlier record had the same key.
+     */
+    public long getDuplicateCount() {
+        return duplicates;
+    }
+
+    /**
+     * @param key the key to look up.
+     * @return the record with the key, or null if there is none.
+     */
+    public String[] get(CharSequence key) {
+        long address = find(key, 0, key.length(), hash(key, 0, key.length()));
+        if (address < 0) {
+            return null;
+        }
+        char[] page = pages[(int) (address >>> 32)];
+        int offset = (int) address;
+        String[] record = new String[fieldCount(page, offset)];
+        int data = offset + 2 + 2 * record.length;
+        for (int f = 0; f < record.length; f++) {
+            int start = fieldStart(page, offset, f);
+            record[f] = new String(page, data + start, fieldEnd(page, offset, f) - start);
+        }
+        return record;
+    }
+
+    /**
+     * Joins the rest of the records of a reader to the indexed records. Each joined
+     * record is written as the record's fields followed by the fields of the indexed
+     * record with the same key, less its key column. Neither the reader nor the writer
+     * is closed.
+     *
+     * @param reader         the records to join.
+     * @param keyColumn      the zero based column of the reader's records to join by.
+     * @param writer         where to write the joined records.
+     * @param keepUnmatched  true to write records without a match followed by empty fields,
+     *                       false to leave them out.
+     * @return the number of records that had a match.
+     */
+    public long join(KissReader reader, int keyColumn, KissWriter writer, boolean keepUnmatched) {
+        Staged record = new Staged();
+        KissField field = new KissField();
+        long matched = 0;
+        while (record.next(reader)) {
+            int keyStart = record.start(keyColumn);
+            int keyEnd = record.end(keyColumn);
+            long address = find(record.chars, keyStart, keyEnd, hash(record.chars, keyStart, keyEnd));
+            if (address < 0 && !keepUnmatched) {
+                continue;
+            }
+            for (int f = 0; f < record.count; f++) {
+                writer.writeField(field.set(record.chars, record.start(f), record.end(f)));
+            }
+            if (address >= 0) {
+                matched++;
+                int p = (int) (address >>> 32);
+                char[] page = pages[p];
+                int offset = (int) address;
+                int count = fieldCount(page, offset);
+                int data = offset + 2 + 2 * count;
+                int written = 0;
+                for (int f = 0; f < count; f++) {
+                    if (f != this.keyColumn) {
+                        writer.writeField(field.set(views[p], data + fieldStart(page, offset, f), data + fieldEnd(page, offset, f)));
+                        written++;
+                    }
+                }
+                padFields(writer, written);
+            } else {
+                padFields(writer, 0);
+            }
+            writer.endRecord();
+        }
+        return matched;
+    }
+
+    /**
+     * Pads the indexed fields of a joined record to the widest indexed record, less its key.
+     */
+    private void padFields(KissWriter writer, int written) {
+        for (int f = written + 1; f < maxFields; f++) {
+            writer.writeField(null);
+        }
+    }
+
+    private void add(Staged record) {
+        int keyStart = record.start(keyColumn);
+        int keyEnd = record.end(keyColumn);
+        int h = hash(record.chars, keyStart, keyEnd);
+        int mask = table.length - 1;
+        int slot = h & mask;
+        long entry;
+        while ((entry = table[slot]) != 0) {
+            if (hashes[slot] == h && keyEquals(entry - 1, record.chars, keyStart, keyEnd)) {
+                duplicates++;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = store(record) + 1;
+        hashes[slot] = h;
+        maxFields = Math.max(maxFields, Math.max(record.count, keyColumn + 1));
+        if (++size * 2 > table.length) {
+            rehash();
+        }
+    }
+
+    private long store(Staged record) {
+        int length = 2 + 2 * record.count + record.chars.length();
+        if (PAGE_SIZE - pageUsed < length) {
+            if (pageCount == pages.length) {
+                pages = Arrays.copyOf(pages, pageCount * 2);
+                views = Arrays.copyOf(views, pageCount * 2);
+            }
+            // a record bigger than a page gets a page of its own
+            pages[pageCount] = new char[Math.max(PAGE_SIZE, length)];
+            views[pageCount] = CharBuffer.wrap(pages[pageCount]);
+            pageCount++;
+            pageUsed = 0;
+        }
+        char[] page = pages[pageCount - 1];
+        int offset = pageUsed;
+        putInt(page, offset, record.count);
+        for (int f = 0; f < record.count; f++) {
+            putInt(page, offset + 2 + 2 * f, record.ends[f]);
+        }
+        record.chars.getChars(0, record.chars.length(), page, offset + 2 + 2 * record.count);
+        pageUsed += length;
+        if (length > PAGE_SIZE) {
+            pageUsed = PAGE_SIZE;
+        }
+        return ((long) (pageCount - 1) << 32) | offset;
+    }
+
+    private long find(CharSequence key, int start, int end, int h) {
+        int mask = table.length - 1;
+        int slot = h & mask;
+        long entry;
+        while ((entry = table[slot]) != 0) {
+            if (hashes[slot] == h && keyEquals(entry - 1, key, start, end)) {
+                return entry - 1;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private boolean keyEquals(long address, CharSequence key, int start, int end) {
+        char[] page = pages[(int) (address >>> 32)];
+        int offset = (int) address;
+        int count = fieldCount(page, offset);
+        int from = 0;
+        int to = 0;
+        if (keyColumn < count) {
+            from = fieldStart(page, offset, keyColumn);
+            to = fieldEnd(page, offset, keyColumn);
+        }
+        if (to - from != end - start) {
+            return false;
+        }
+        int data = offset + 2 + 2 * count + from;
+        for (int n = 0; n < end - start; n++) {
+            if (page[data + n] != key.charAt(start + n)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void rehash() {
+        long[] t = new long[table.length * 2];
+        int[] h = new int[t.length];
+        int mask = t.length - 1;
+        for (int n = 0; n < table.length; n++) {
+            if (table[n] != 0) {
+                int slot = hashes[n] & mask;
+                while (t[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                t[slot] = table[n];
+                h[slot] = hashes[n];
+            }
+        }
+        table = t;
+        hashes = h;
+    }
+
+    private static int hash(CharSequence cs, int start, int end) {
+        int h = 0;
+        for (int n = start; n < end; n++) {
+            h = 31 * h + cs.charAt(n);
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private static int fieldCount(char[] page, int offset) {
+        return getInt(page, offset);
+    }
+
+    private static int fieldStart(char[] page, int offset, int field) {
+        return field == 0 ? 0 : getInt(page, offset + 2 * field);
+    }
+
+    private static int fieldEnd(char[] page, int offset, int field) {
+        return getInt(page, offset + 2 + 2 * field);
+    }
+
+    private static void putInt(char[] page, int at, int value) {
+        page[at] = (char) (value >>> 16);
+        page[at + 1] = (char) value;
+    }
+
+    private static int getInt(char[] page, int at) {
+        return page[at] << 16 | page[at + 1];
+    }
+
+    /**
+     * The fields of one record, as chars and field ends.
+     */
+    private static final class Staged implements KissFieldVisitor {
+
+        final StringBuilder chars = new StringBuilder();
+        int[] ends = new int[16];
+        int count;
+
+        boolean next(KissReader reader) {
+            chars.setLength(0);
+            count = 0;
+            return reader.visitNext(this) != -1;
+        }
+
+        @Override
+        public void visit(int index, KissField field) {
+            if (count == ends.length) {
+                ends = Arrays.copyOf(ends, count * 2);
+            }
+            field.appendTo(chars);
+            ends[count++] = chars.length();
+        }
+
+        /**
+         * @return where the field starts, or 0 if the record does not have it.
+         */
+        int start(int field) {
+            return field >= count || field == 0 ? 0 : ends[field - 1];
+        }
+
+        /**
+         * @return where the field ends, or 0 if the record does not have it.
+         */
+        int end(int field) {
+            return field >= count ? 0 : ends[field];
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package github.footloosejava.kisscsv;
+
+/**
+ * Reads integers straight from the chars of a field, without creating a String.
+ * <p>
+ * The schema sampler, the columnar cache and the binder all use it, so they agree on
+ * what an integer is: exactly what {@link Long#toString(long)} prints, without a plus
+ * sign, leading zeros or a negative zero. Such a value prints back the same after it is
+ * parsed.
+ */
+final class KissNumbers {
+
+    private KissNumbers() {
+    }
+
+    /**
+     * @param cs the chars.
+     * @return true if the chars are a long as {@link Long#toString(long)} prints it.
+     */
+    static boolean isCanonicalLong(CharSequence cs) {
+        int length = cs.length();
+        if (length == 0 || length > 20) {
+            return false;
+        }
+        boolean negative = cs.charAt(0) == '-';
+        int n = negative ? 1 : 0;
+        // no sign alone, leading zero or negative zero
+        if (n == length || (cs.charAt(n) == '0' && (length > n + 1 || negative))) {
+            return false;
+        }
+        // accumulate negatively, which reaches Long.MIN_VALUE
+        long v = 0;
+        for (; n < length; n++) {
+            char c = cs.charAt(n);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+            int d = c - '0';
+            if (v < (Long.MIN_VALUE + d) / 10) {
+                return false;
+            }
+            v = v * 10 - d;
+        }
+        return negative || v != Long.MIN_VALUE;
+    }
+
+    /**
+     * @param cs  the chars.
+     * @param min the smallest value allowed.
+     * @param max the largest value allowed.
+     * @return the value.
+     * @throws NumberFormatException if the chars are not a canonical long, or it is out of range.
+     */
+    static long parseLong(CharSequence cs, long min, long max) {
+        if (!isCanonicalLong(cs)) {
+            throw new NumberFormatException("Not an integer or out of range");
+        }
+        boolean negative = cs.charAt(0) == '-';
+        long v = 0;
+        for (int n = negative ? 1 : 0; n < cs.length(); n++) {
+            v = v * 10 - (cs.charAt(n) - '0');
+        }
+        v = negative ? v : -v;
+        if (v < min || v > max) {
+            throw new NumberFormatException("Out of range");
+        }
+        return v;
+    }
+}
@@ -16,6 +16,20 @@ public final class KissParser {
     public static final boolean DEFAULT_TRIM_RESULTS = false;
     public static final String[] EMPTY_ARRAY = new String[0];
 
+    /**
+     * Returned in place of a field count when a record was rejected by a {@link KissFilter}.
+     */
+    public static final int REJECTED = -2;
+
+    static final String UNTERMINATED_QUOTE = "Un-terminated quoted field at end of CSV record";
+
+    /**
+     * A visitor that ignores every field. When given it, and no filter, the parser only
+     * checks and counts fields and does not keep their chars.
+     */
+    public static final KissFieldVisitor DISCARD = (index, field) -> {
+    };
+
     private final char separator;
     private final boolean hasquotechar;
     private final char quotechar;
@@ -75,28 +89,23 @@ public final class KissParser {
         }
     }
 
-    private boolean isQuoteChar(int n) {
-        return hasquotechar && n == quotechar;
+    public char getSeparator() {
+        return separator;
     }
 
     /**
-     * Helper method to trim the StringBuilder. We use the same whitespace
-     * determination as String.trim()
+     * @return the quote character, or null if there is none.
      */
-    private String result(StringBuilder sb, boolean trim) {
-        if (trim) {
-            int len = sb.length();
-            int start = 0;
-            while ((start < len) && (sb.charAt(start) <= ' ')) {
-                start++;
-            }
-            while ((start < len) && (sb.charAt(len - 1) <= ' ')) {
-                len--;
-            }
-            return ((start > 0) || (len < sb.length()) ? sb.substring(start, len) : sb.toString());
-        } else {
-            return sb.toString();
-        }
+    public Character getQuoteCharacter() {
+        return hasquotechar ? quotechar : null;
+    }
+
+    public boolean isTrimResults() {
+        return trimResults;
+    }
+
+    private boolean isQuoteChar(int n) {
+        return hasquotechar && n == quotechar;
     }
 
     /**
@@ -130,15 +139,37 @@ public final class KissParser {
      * @return the number of fields in the record or -1 if EOF
      */
     public int parseNext(final Reader reader, final Consumer<String> consumer) {
+        return parseNext(reader, (index, field) -> consumer.accept(field.toString()), null);
+    }
+
+    /**
+     * Parses the next record (set of fields), abandoning it early if it fails the filter.
+     * <p>
+     * Fields before the filtered column are held back until the column is accepted.
+     * Once it is rejected the rest of the record is skipped with a quote-aware scan,
+     * and the visitor is never called for that record.
+     *
+     * @param reader  Reader to read from.
+     * @param visitor The visitor for each field in an accepted record.
+     * @param filter  Optional filter. Can be null to accept all records.
+     * @return the number of fields in the record, -1 if EOF or {@link #REJECTED}
+     */
+    public int parseNext(final Reader reader, final KissFieldVisitor visitor, final KissFilter filter) {
         try {
             int r = reader.read();
             if (r == -1) {
                 return -1;
             }
-            final StringBuilder working = new StringBuilder();
+            // without a field to hand over, the chars need not be kept
+            final boolean keep = visitor != DISCARD || filter != null;
+            final StringBuilder working = keep ? new StringBuilder() : null;
+            final KissField field = keep ? new KissField() : null;
+            final KissHeldFields held = filter == null ? null : new KissHeldFields();
             int count = 0;
             boolean inQuotes = false;
             boolean endOfField = false;
+            // whether the field needs quoting when written back
+            boolean needsQuotes = false;
 
             while (r != -1) {
                 if (debug) {
@@ -151,14 +182,16 @@ public final class KissParser {
                     if (isQuoteChar(r)) {
                         if (isQuoteChar(r = reader.read())) {
                             // doubled quotes: just append a quote and carry on
-                            working.append((char) r);
+                            if (keep) {
+                                working.append((char) r);
+                            }
                         } else {
                             // end quote is end of field
                             endOfField = true;
                             inQuotes = false;
                             continue;
                         }
-                    } else {
+                    } else if (keep) {
                         working.append((char) r);
                     }
                 } else {
@@ -168,17 +201,27 @@ public final class KissParser {
                         }
                         // if we encounter a first quote and it is whitespace until that point
                         // we ignore the whitespace as outside the quote
-                        working.setLength(0);
+                        if (keep) {
+                            working.setLength(0);
+                        }
                         inQuotes = true;
+                        needsQuotes = true;
                     } else if (r == separator) {
                         // add to fields
-                        count++;
-                        consumer.accept(result(working, trimResults));
+                        if (keep) {
+                            if (!accept(count++, field.set(working, trimResults, !needsQuotes), visitor, filter, held)) {
+                                skipRecord(reader);
+                                return REJECTED;
+                            }
 
-                        // RESET
-                        working.setLength(0);
+                            // RESET
+                            working.setLength(0);
+                        } else {
+                            count++;
+                        }
                         inQuotes = false;
                         endOfField = false;
+                        needsQuotes = false;
 
                     } else if (r == '\n') {
                         // END OF RECORD
@@ -194,7 +237,10 @@ public final class KissParser {
                                 continue;
                             } else {
                                 // but a CR not followed by a LF is in fact a character to keep
-                                working.append('\r');
+                                if (keep) {
+                                    working.append('\r');
+                                }
+                                needsQuotes = true;
                                 continue;
                             }
                         }
@@ -204,12 +250,12 @@ public final class KissParser {
                             // OTHERWISE NO TEXT SHOULD COME AFTER END OF FIELD
                             throw new KissException("Non-whitespace character found after last quote in quoted value" + "\n" +
                                 "> fields found= " + count + "\n" +
-                                "> working field= " + working + "\n" +
+                                "> working field= " + (keep ? working : "(not kept)") + "\n" +
                                 "> character found= " + ((char) r) + "\n" +
                                 "> separator= " + separator + "\n" +
                                 "> separator name= " + Character.getName(separator));
                         }
-                    } else {
+                    } else if (keep) {
                         working.append((char) r);
                     }
                 }
@@ -219,13 +265,56 @@ public final class KissParser {
                 r = reader.read();
             }
             if (inQuotes) {
-                throw new KissException("Un-terminated quoted field at end of CSV record");
+                throw new KissException(UNTERMINATED_QUOTE);
+            }
+            if (!keep) {
+                return count + 1;
+            }
+            if (!accept(count++, field.set(working, trimResults, !needsQuotes), visitor, filter, held)
+                || (filter != null && !held.isReleased())) {
+                // the record ended before the filtered column was reached
+                return REJECTED;
             }
-            count++;
-            consumer.accept(result(working, trimResults));
             return count;
         } catch (IOException ex) {
             throw new UncheckedIOException(ex);
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Hands a completed field to the visitor, or holds it back until the filtered
+     * column has been tested.
+     *
+     * @return false if the record was rejected by the filter.
+     */
+    private static boolean accept(int index, KissField field, KissFieldVisitor visitor,
+                                  KissFilter filter, KissHeldFields held) {
+        if (filter != null && !held.isReleased()) {
+            if (index < filter.getColumn()) {
+                held.visit(index, field);
+                return true;
+            }
+            if (!filter.test(field)) {
+                return false;
+            }
+            held.release(visitor);
+        }
+        visitor.visit(index, field);
+        return true;
+    }
+
+    /**
+     * Quote-aware scan to the end of the current record.
+     */
+    void skipRecord(Reader reader) throws IOException {
+        boolean inQuotes = false;
+        int r;
+        while ((r = reader.read()) != -1) {
+            if (isQuoteChar(r)) {
+                inQuotes = !inQuotes;
+            } else if (r == '\n' && !inQuotes) {
+                return;
+            }
+        }
+    }
+}
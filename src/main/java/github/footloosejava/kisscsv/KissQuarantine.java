@@ -0,0 +1,39 @@
+package github.footloosejava.kisscsv;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+
+/**
+ * Receives malformed records that a lenient {@link KissReader} has skipped.
+ */
+@FunctionalInterface
+public interface KissQuarantine {
+
+    /**
+     * @param recordNumber the number of the bad record, counting from 1.
+     * @param offset       the position of the start of the record. A byte offset when
+     *                     reading a channel through {@link KissInput}, otherwise a char offset.
+     * @param rawText      the raw text of the record without its line end, or null if
+     *                     it was too long to be retained.
+     * @param error        the parse error.
+     */
+    void accept(long recordNumber, long offset, String rawText, KissException error);
+
+    /**
+     * @param writer where to write the raw text of each bad record, one per line.
+     * @return a quarantine that copies bad records to the writer.
+     */
+    static KissQuarantine to(Writer writer) {
+        return (recordNumber, offset, rawText, error) -> {
+            if (rawText != null) {
+                try {
+                    writer.write(rawText);
+                    writer.write('\n');
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            }
+        };
+    }
+}
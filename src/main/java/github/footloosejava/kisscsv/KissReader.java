@@ -4,6 +4,11 @@ import java.io.Closeable;
 import java.io.IOException;
 import java.io.Reader;
 import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.function.Consumer;
@@ -15,12 +20,15 @@ import java.util.function.Supplier;
  */
 public class KissReader implements Closeable, Supplier<String[]> {
 
-    private static final Consumer<String> NULL_CONSUMER = str -> {
-    };
     private final Reader reader;
     private final KissParser parser;
+    private final KissFilter filter;
+    private final KissQuarantine quarantine;
+    private final KissInput input;
+    private final KissHeldFields held;
     private int skipRemainingLines;
-    private int recordNumber = 1;
+    private long recordNumber = 1;
+    private long errorCount;
 
     /**
      * Constructs KissReader using a comma for the separator and a double-quote
@@ -55,10 +63,138 @@ public class KissReader implements Closeable, Supplier<String[]> {
      * @param csvParser the parser to use to parse input
      */
     public KissReader(Reader reader, int skipLines, KissParser csvParser) {
-        this.reader = reader;
+        this(reader, skipLines, csvParser, null);
+    }
+
+    /**
+     * Constructs KissReader that only returns records accepted by the filter. Rejected
+     * records are skipped by the parser without building their fields. Skipped lines
+     * are not filtered.
+     *
+     * @param reader    the reader to an underlying CSV source. It is advised to ensure that the source is buffered.
+     * @param skipLines the number of lines to skip before reading records.
+     * @param csvParser the parser to use to parse input
+     * @param filter    the filter records must pass. Can be null to accept all records.
+     */
+    public KissReader(Reader reader, int skipLines, KissParser csvParser, KissFilter filter) {
+        this(reader, skipLines, csvParser, filter, null);
+    }
+
+    /**
+     * Constructs a lenient KissReader when a quarantine is given. Instead of failing, a
+     * malformed record is skipped up to the next record boundary and passed to the
+     * quarantine, and reading carries on. Fields of a record are only passed on once
+     * the whole record has parsed.
+     * <p>
+     * Whether the parser was inside quotes is lost at the error, so only the first line
+     * of a malformed record is skipped and parsing restarts after it. The other lines of
+     * a malformed record that spans several may be reported as further errors.
+     * <p>
+     * A record is given up on once more than the {@link KissInput}'s mark limit has been
+     * read since its start, 1M chars by default, so an un-terminated quote costs at most
+     * that much look-ahead. A well-formed record longer than that is reported as malformed.
+     *
+     * @param reader     the reader to an underlying CSV source. Wrapped in a {@link KissInput}
+     *                   if it is not one already.
+     * @param skipLines  the number of lines to skip before reading records.
+     * @param csvParser  the parser to use to parse input
+     * @param filter     the filter records must pass. Can be null to accept all records.
+     * @param quarantine receives malformed records. Can be null to fail on the first one.
+     */
+    public KissReader(Reader reader, int skipLines, KissParser csvParser, KissFilter filter, KissQuarantine quarantine) {
+        if (quarantine != null) {
+            this.input = reader instanceof KissInput ? (KissInput) reader : new KissInput(reader);
+            this.input.boundRecordsToMarkLimit();
+            this.reader = this.input;
+            this.held = new KissHeldFields();
+        } else {
+            this.input = reader instanceof KissInput ? (KissInput) reader : null;
+            this.reader = reader;
+            this.held = null;
+        }
 
         this.skipRemainingLines = skipLines;
         this.parser = csvParser;
+        this.filter = filter;
+        this.quarantine = quarantine;
+    }
+
+    /**
+     * Opens a file for reading with a KissReader that can take checkpoints.
+     *
+     * @param path      the CSV file.
+     * @param charset   UTF-8 or a single byte charset.
+     * @param csvParser the parser to use to parse input
+     * @return the reader.
+     * @throws IOException if the file cannot be opened.
+     */
+    public static KissReader open(Path path, Charset charset, KissParser csvParser) throws IOException {
+        return new KissReader(new KissInput(FileChannel.open(path, StandardOpenOption.READ), charset), csvParser);
+    }
+
+    /**
+     * Reopens a file at a checkpoint and continues reading from there, without reading
+     * anything before it.
+     *
+     * @param path       the CSV file.
+     * @param charset    UTF-8 or a single byte charset. Must be the one the checkpoint was taken with.
+     * @param csvParser  the parser to use to parse input
+     * @param checkpoint a checkpoint taken from a reader of the same file.
+     * @return the reader, positioned at the checkpoint.
+     * @throws IOException if the file cannot be opened.
+     */
+    public static KissReader resume(Path path, Charset charset, KissParser csvParser, KissCheckpoint checkpoint) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            return resume(channel, charset, csvParser, checkpoint);
+        } catch (RuntimeException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Moves a channel to a checkpoint and continues reading from there, without reading
+     * anything before it.
+     *
+     * @param channel    the channel to the CSV data. It is closed when the reader is closed.
+     * @param charset    UTF-8 or a single byte charset. Must be the one the checkpoint was taken with.
+     * @param csvParser  the parser to use to parse input
+     * @param checkpoint a checkpoint taken from a reader of the same data.
+     * @return the reader, positioned at the checkpoint.
+     * @throws IOException if the channel cannot be positioned.
+     */
+    public static KissReader resume(SeekableByteChannel channel, Charset charset, KissParser csvParser,
+                                    KissCheckpoint checkpoint) throws IOException {
+        channel.position(checkpoint.getPosition());
+        return atRecord(new KissInput(channel, charset), 0, csvParser, checkpoint.getRecordNumber());
+    }
+
+    /**
+     * A reader of input that starts part way through, so record numbers in errors
+     * count from where the input starts.
+     */
+    static KissReader atRecord(Reader reader, int skipLines, KissParser csvParser, long recordNumber) {
+        KissReader kr = new KissReader(reader, skipLines, csvParser);
+        kr.recordNumber = recordNumber;
+        return kr;
+    }
+
+    /**
+     * Takes a checkpoint at the current record boundary, after any lines still to be skipped.
+     * The reader must be reading a {@link KissInput} over a byte channel, such as one from
+     * {@link #open(Path, Charset, KissParser)}.
+     *
+     * @return the position and number of the next record.
+     * @throws IllegalStateException if the reader is not reading a KissInput over a byte
+     *                               channel, whose positions are byte offsets.
+     */
+    public KissCheckpoint checkpoint() {
+        if (input == null || !input.hasBytePositions()) {
+            throw new IllegalStateException("Checkpoints need a KissInput over a byte channel");
+        }
+        skipLines();
+        return new KissCheckpoint(input.position(), recordNumber);
     }
 
     /**
@@ -118,26 +254,88 @@ public class KissReader implements Closeable, Supplier<String[]> {
      * @return a count of the number of fields read or -1 if EOF.
      */
     public int readNext(Consumer<String> consumer) {
+        return visitNext((index, field) -> consumer.accept(field.toString()));
+    }
+
+    /**
+     * Reads the next record without creating a String for each field.
+     *
+     * @param visitor Visitor will be called with each field in the record.
+     * @return a count of the number of fields read or -1 if EOF.
+     */
+    public int visitNext(KissFieldVisitor visitor) {
         try {
-            while (skipRemainingLines > 0) {
-                if (parser.parseNext(reader, NULL_CONSUMER) == -1) {
-                    skipRemainingLines = 0;
-                    break;
-                }
-                recordNumber++;
-                skipRemainingLines--;
-            }
+            skipLines();
 
-            int count = parser.parseNext(reader, consumer);
-            if (count != -1) {
-                recordNumber++;
+            while (true) {
+                int count;
+                if (quarantine == null) {
+                    count = parser.parseNext(reader, visitor, filter);
+                } else {
+                    input.markRecord();
+                    held.clear();
+                    try {
+                        count = parser.parseNext(reader, held, filter);
+                    } catch (KissException ex) {
+                        quarantine(ex);
+                        continue;
+                    }
+                    if (count >= 0) {
+                        held.release(visitor);
+                    }
+                }
+                if (count != -1) {
+                    recordNumber++;
+                }
+                if (count != KissParser.REJECTED) {
+                    return count;
+                }
             }
-            return count;
         } catch (Exception e) {
             throw new KissException(e.getMessage() + " (rec no. " + recordNumber + ")", e);
         }
     }
 
+    private void skipLines() {
+        while (skipRemainingLines > 0) {
+            if (parser.parseNext(reader, KissParser.DISCARD, null) == -1) {
+                skipRemainingLines = 0;
+                break;
+            }
+            recordNumber++;
+            skipRemainingLines--;
+        }
+    }
+
+    private void quarantine(KissException error) throws IOException {
+        errorCount++;
+        skipMalformed(input);
+        String text = input.markedText();
+        if (text != null && text.endsWith("\n")) {
+            text = text.substring(0, text.length() - (text.endsWith("\r\n") ? 2 : 1));
+        }
+        quarantine.accept(recordNumber, input.markedPosition(), text,
+            new KissException(error.getMessage() + " (rec no. " + recordNumber + ")", error));
+        recordNumber++;
+    }
+
+    /**
+     * Moves past a record that failed to parse, from the mark at its start, to where
+     * the next record most likely starts. Quote parity at the error cannot be trusted,
+     * as a stray quote flips it, so the first line of the record is dropped rather than
+     * scanning for the record's end from where parsing stopped.
+     */
+    static void skipMalformed(KissInput input) throws IOException {
+        input.skipLineFromMark();
+    }
+
+    /**
+     * @return the number of malformed records passed to the quarantine.
+     */
+    public long getErrorCount() {
+        return errorCount;
+    }
+
     @Override
     public void close() {
         try {
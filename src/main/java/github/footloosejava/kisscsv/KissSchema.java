@@ -0,0 +1,503 @@
+package github.footloosejava.kisscsv;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * The column types of a CSV file, inferred from a sample of its records.
+ * <p>
+ * For each column the sample gives a {@link Type}, whether it has empty or missing
+ * values, an estimate of its number of distinct values and its widest value. Fields
+ * are inspected straight from the parser's buffer; the cardinality estimate uses
+ * linear counting over a fixed size bitmap, so a sample of any size takes the same
+ * memory.
+ * <p>
+ * A schema can choose the encodings of a {@link KissColumnarCache}, and gives the Java
+ * type to bind each column to with a {@link KissBinder}.
+ */
+public final class KissSchema {
+
+    private static final int BITMAP_BITS = 1 << 18;
+
+    /**
+     * The type of the non-empty values of a column, narrowest first.
+     */
+    public enum Type {
+        /**
+         * Integers that fit a long, written without leading zeros or a plus sign.
+         */
+        LONG(long.class, Long.class),
+        /**
+         * Decimal numbers, with an optional exponent.
+         */
+        DOUBLE(double.class, Double.class),
+        /**
+         * true or false, in any case.
+         */
+        BOOLEAN(boolean.class, Boolean.class),
+        /**
+         * ISO dates such as 2024-02-29.
+         */
+        DATE(LocalDate.class, LocalDate.class),
+        STRING(String.class, String.class);
+
+        private final Class<?> javaType;
+        private final Class<?> nullableJavaType;
+
+        Type(Class<?> javaType, Class<?> nullableJavaType) {
+            this.javaType = javaType;
+            this.nullableJavaType = nullableJavaType;
+        }
+    }
+
+    private final Column[] columns;
+    private final long records;
+
+    private KissSchema(Column[] columns, long records) {
+        this.columns = columns;
+        this.records = records;
+    }
+
+    /**
+     * Samples the first records of a file.
+     *
+     * @param path       the CSV file.
+     * @param charset    the character set of the file.
+     * @param csvParser  the parser to use to parse input
+     * @param headerRows the number of records at the start that are not data. The last
+     *                   of them names the columns.
+     * @param maxRecords the number of data records to sample.
+     * @return the schema.
+     * @throws IOException if the file cannot be read.
+     */
+    public static KissSchema sample(Path path, Charset charset, KissParser csvParser, int headerRows, int maxRecords) throws IOException {
+        try (KissReader kr = new KissReader(Files.newBufferedReader(path, charset), csvParser)) {
+            return sample(kr, headerRows, maxRecords);
+        }
+    }
+
+    /**
+     * Samples the next records of a reader. The reader is not closed.
+     *
+     * @param reader     the records to sample.
+     * @param headerRows the number of records to read first that are not data. The last
+     *                   of them names the columns.
+     * @param maxRecords the number of data records to sample.
+     * @return the schema.
+     */
+    public static KissSchema sample(KissReader reader, int headerRows, int maxRecords) {
+        String[] names = null;
+        for (int n = 0; n < headerRows; n++) {
+            names = reader.readNext();
+        }
+        Sampler sampler = new Sampler();
+        for (int n = 0; n < maxRecords && sampler.next(reader); n++) {
+            // sampling
+        }
+        return sampler.schema(names);
+    }
+
+    /**
+     * Samples records from byte ranges spread at random through a file, for files
+     * whose first records are not typical of the rest.
+     * <p>
+     * Each range starts at the first line end in it. A range that starts inside a
+     * quoted value with line ends can be read out of step with its records: records
+     * that then fail to parse are left out of the sample, but ones that happen to
+     * parse are not.
+     *
+     * @param path       the CSV file.
+     * @param charset    UTF-8 or an ASCII compatible single byte charset.
+     * @param csvParser  the parser to use to parse input
+     * @param headerRows the number of records at the start that are not data. The last
+     *                   of them names the columns.
+     * @param ranges     the number of ranges to sample.
+     * @param rangeSize  the number of bytes in each range.
+     * @param seed       the seed for choosing the ranges, so that a sample can be repeated.
+     * @return the schema.
+     * @throws IOException if the file cannot be read.
+     */
+    public static KissSchema sampleRanges(Path path, Charset charset, KissParser csvParser, int headerRows,
+                                          int ranges, int rangeSize, long seed) throws IOException {
+        String[] names = null;
+        long dataStart;
+        try (KissReader kr = KissReader.open(path, charset, csvParser)) {
+            for (int n = 0; n < headerRows; n++) {
+                names = kr.readNext();
+            }
+            dataStart = kr.checkpoint().getPosition();
+        }
+        Sampler sampler = new Sampler();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long[] starts = new long[ranges];
+            Random random = new Random(seed);
+            for (int n = 0; n < ranges; n++) {
+                starts[n] = dataStart + (long) (random.nextDouble() * Math.max(0, size - dataStart));
+            }
+            Arrays.sort(starts);
+            byte[] buf = new byte[rangeSize];
+            long end = dataStart;
+            for (long start : starts) {
+                // ranges that overlap would sample records twice
+                start = Math.max(start, end);
+                if (start >= size) {
+                    break;
+                }
+                ByteBuffer bb = ByteBuffer.wrap(buf);
+                while (bb.hasRemaining() && channel.read(bb, start + bb.position()) > 0) {
+                    // keep reading
+                }
+                int length = bb.position();
+                end = start + length;
+                int from = 0;
+                if (start > dataStart) {
+                    while (from < length && buf[from++] != '\n') {
+                        // skip the record the range starts in
+                    }
+                }
+                KissBoundaryScanner scanner = new KissBoundaryScanner(csvParser);
+                int cut = end == size ? length : scanner.lastBoundary(buf, from, length);
+                if (cut > from) {
+                    KissInput input = new KissInput(Channels.newChannel(new ByteArrayInputStream(buf, from, cut - from)), charset);
+                    KissReader kr = new KissReader(input, 0, csvParser, null, (record, offset, text, error) -> {
+                        // out of step, or malformed: leave it out
+                    });
+                    while (sampler.next(kr)) {
+                        // sampling
+                    }
+                }
+            }
+        }
+        return sampler.schema(names);
+    }
+
+    /**
+     * @return the number of records sampled.
+     */
+    public long getSampledRecords() {
+        return records;
+    }
+
+    /**
+     * @return the number of columns in the widest sampled record.
+     */
+    public int getColumnCount() {
+        return columns.length;
+    }
+
+    /**
+     * @param column the zero based column index.
+     * @return the column.
+     */
+    public Column getColumn(int column) {
+        return columns[column];
+    }
+
+    /**
+     * @return the names of the columns from the header, or their indexes for columns without one.
+     */
+    public String[] getNames() {
+        String[] names = new String[columns.length];
+        for (int c = 0; c < columns.length; c++) {
+            names[c] = columns[c].name != null ? columns[c].name : String.valueOf(c);
+        }
+        return names;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Column column : columns) {
+            sb.append(column).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * What the sample showed about one column.
+     */
+    public static final class Column {
+
+        private final int index;
+        private final String name;
+        private final Type type;
+        private final long nullCount;
+        private final long cardinality;
+        private final int maxWidth;
+        private final long sampled;
+
+        private Column(int index, String name, Type type, long nullCount, long cardinality, int maxWidth, long sampled) {
+            this.index = index;
+            this.name = name;
+            this.type = type;
+            this.nullCount = nullCount;
+            this.cardinality = cardinality;
+            this.maxWidth = maxWidth;
+            this.sampled = sampled;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        /**
+         * @return the name from the header, or null if there is none.
+         */
+        public String getName() {
+            return name;
+        }
+
+        public Type getType() {
+            return type;
+        }
+
+        /**
+         * @return true if the column was empty or missing in any sampled record.
+         */
+        public boolean isNullable() {
+            return nullCount > 0;
+        }
+
+        /**
+         * @return the number of sampled records the column was empty or missing in.
+         */
+        public long getNullCount() {
+            return nullCount;
+        }
+
+        /**
+         * @return an estimate of the number of distinct non-empty values in the sample.
+         */
+        public long getCardinality() {
+            return cardinality;
+        }
+
+        /**
+         * @return the length in chars of the longest value.
+         */
+        public int getMaxWidth() {
+            return maxWidth;
+        }
+
+        /**
+         * @return the type to bind the column to with a {@link KissBinder}: a primitive
+         * if the column is never empty, otherwise its wrapper.
+         */
+        public Class<?> getJavaType() {
+            return isNullable() ? type.nullableJavaType : type.javaType;
+        }
+
+        /**
+         * @return the encoding a {@link KissColumnarCache} should use for the column.
+         */
+        public KissColumnarCache.ColumnType getCacheType() {
+            if (type == Type.LONG) {
+                return KissColumnarCache.ColumnType.LONG;
+            }
+            long values = sampled - nullCount;
+            if (cardinality <= KissColumnarCache.MAX_DICTIONARY && cardinality <= values / 2) {
+                return KissColumnarCache.ColumnType.DICTIONARY;
+            }
+            return KissColumnarCache.ColumnType.STRING;
+        }
+
+        @Override
+        public String toString() {
+            return index + (name == null ? "" : " " + name) + ": " + type + (isNullable() ? " nullable" : "")
+                + ", ~" + cardinality + " distinct, width " + maxWidth;
+        }
+    }
+
+    /**
+     * Collects the statistics of each column from the fields of sampled records.
+     */
+    private static final class Sampler implements KissFieldVisitor {
+
+        private Stats[] stats = new Stats[0];
+        private long records;
+
+        boolean next(KissReader reader) {
+            if (reader.visitNext(this) == -1) {
+                return false;
+            }
+            records++;
+            return true;
+        }
+
+        @Override
+        public void visit(int index, KissField field) {
+            if (index >= stats.length) {
+                int old = stats.length;
+                stats = Arrays.copyOf(stats, index + 1);
+                for (int c = old; c <= index; c++) {
+                    stats[c] = new Stats();
+                }
+            }
+            if (!field.isEmpty()) {
+                stats[index].add(field);
+            }
+        }
+
+        KissSchema schema(String[] names) {
+            int count = Math.max(stats.length, names == null ? 0 : names.length);
+            Column[] columns = new Column[count];
+            for (int c = 0; c < count; c++) {
+                Stats s = c < stats.length ? stats[c] : new Stats();
+                String name = names != null && c < names.length ? names[c] : null;
+                columns[c] = new Column(c, name, s.type(), records - s.values, s.cardinality(), s.maxWidth, records);
+            }
+            return new KissSchema(columns, records);
+        }
+    }
+
+    private static final class Stats {
+
+        long values;
+        int maxWidth;
+        boolean isLong = true;
+        boolean isDouble = true;
+        boolean isBoolean = true;
+        boolean isDate = true;
+        final long[] bitmap = new long[BITMAP_BITS / 64];
+
+        void add(KissField field) {
+            values++;
+            maxWidth = Math.max(maxWidth, field.length());
+            isLong = isLong && KissNumbers.isCanonicalLong(field);
+            isDouble = isDouble && (isLong || isDecimal(field));
+            isBoolean = isBoolean && isBoolean(field);
+            isDate = isDate && isDate(field);
+            int h = 0;
+            for (int n = 0, length = field.length(); n < length; n++) {
+                h = 31 * h + field.charAt(n);
+            }
+            // murmur3 finalizer, to spread short keys over the whole bitmap
+            h ^= h >>> 16;
+            h *= 0x85ebca6b;
+            h ^= h >>> 13;
+            h *= 0xc2b2ae35;
+            h ^= h >>> 16;
+            int bit = h & (BITMAP_BITS - 1);
+            bitmap[bit >>> 6] |= 1L << bit;
+        }
+
+        Type type() {
+            if (values == 0) {
+                return Type.STRING;
+            }
+            return isLong ? Type.LONG : isDouble ? Type.DOUBLE : isBoolean ? Type.BOOLEAN : isDate ? Type.DATE : Type.STRING;
+        }
+
+        long cardinality() {
+            long set = 0;
+            for (long word : bitmap) {
+                set += Long.bitCount(word);
+            }
+            long zeros = BITMAP_BITS - set;
+            if (zeros == 0) {
+                // saturated: there are at least as many values as bits
+                return values;
+            }
+            long estimate = Math.round(-BITMAP_BITS * Math.log((double) zeros / BITMAP_BITS));
+            return Math.min(estimate, values);
+        }
+    }
+
+    private static boolean isDecimal(CharSequence cs) {
+        int length = cs.length();
+        int n = 0;
+        if (cs.charAt(n) == '-' || cs.charAt(n) == '+') {
+            n++;
+        }
+        if (n + 1 < length && cs.charAt(n) == '0' && isDigit(cs.charAt(n + 1))) {
+            // a leading zero, as in a code such as 02134, is not a number
+            return false;
+        }
+        int digits = 0;
+        while (n < length && isDigit(cs.charAt(n))) {
+            n++;
+            digits++;
+        }
+        if (n < length && cs.charAt(n) == '.') {
+            n++;
+            while (n < length && isDigit(cs.charAt(n))) {
+                n++;
+                digits++;
+            }
+        }
+        if (digits == 0) {
+            return false;
+        }
+        if (n < length && (cs.charAt(n) == 'e' || cs.charAt(n) == 'E')) {
+            n++;
+            if (n < length && (cs.charAt(n) == '-' || cs.charAt(n) == '+')) {
+                n++;
+            }
+            int exponent = 0;
+            while (n < length && isDigit(cs.charAt(n))) {
+                n++;
+                exponent++;
+            }
+            if (exponent == 0) {
+                return false;
+            }
+        }
+        return n == length;
+    }
+
+    private static boolean isBoolean(CharSequence cs) {
+        String word = cs.length() == 4 ? "true" : cs.length() == 5 ? "false" : null;
+        if (word == null) {
+            return false;
+        }
+        for (int n = 0; n < word.length(); n++) {
+            if (Character.toLowerCase(cs.charAt(n)) != word.charAt(n)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isDate(CharSequence cs) {
+        if (cs.length() != 10 || cs.charAt(4) != '-' || cs.charAt(7) != '-') {
+            return false;
+        }
+        for (int n : new int[]{0, 1, 2, 3, 5, 6, 8, 9}) {
+            if (!isDigit(cs.charAt(n))) {
+                return false;
+            }
+        }
+        int year = number(cs, 0, 4);
+        int month = number(cs, 5, 7);
+        int day = number(cs, 8, 10);
+        if (month < 1 || month > 12 || day < 1) {
+            return false;
+        }
+        boolean leap = year % 4 == 0 && (year % 100 != 0 || year % 400 == 0);
+        int days = month == 2 ? (leap ? 29 : 28) : month == 4 || month == 6 || month == 9 || month == 11 ? 30 : 31;
+        return day <= days;
+    }
+
+    private static int number(CharSequence cs, int from, int to) {
+        int v = 0;
+        for (int n = from; n < to; n++) {
+            v = v * 10 + (cs.charAt(n) - '0');
+        }
+        return v;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+}
@@ -0,0 +1,362 @@
+package github.footloosejava.kisscsv;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Sorts CSV data that is larger than memory.
+ * <p>
+ * Records are read with a {@link KissReader} into runs that fit the memory budget.
+ * Each run is sorted in the background while the next one is read, and spilled to a
+ * temporary file with a {@link KissWriter}. The runs are then merged with a k-way heap
+ * merge into the output, at most {@link #MAX_FAN_IN} at a time so that only that many
+ * files are open. With more runs, groups of neighbouring runs are first merged into
+ * longer runs, in as many passes as it takes. Input that fits in a single run is never
+ * spilled.
+ * <p>
+ * The sort is stable: records with equal keys keep their input order.
+ */
+public final class KissSorter {
+
+    public static final long DEFAULT_MEMORY_BUDGET = 64L << 20;
+    public static final int MAX_FAN_IN = 64;
+
+    // runs are always written with every field quoted, so they read back exactly
+    // whatever the separator, quoting and trimming of the input
+    private static final KissParser RUN_PARSER = new KissParser(',', '"', false);
+
+    private final KissParser parser;
+    private final Comparator<String[]> comparator;
+    private final long memoryBudget;
+    private final Path tempDirectory;
+    private final int maxFanIn;
+
+    /**
+     * Sorts with the default memory budget, spilling to the default temporary directory.
+     *
+     * @param csvParser  the parser to use to parse input
+     * @param comparator the record order, such as one from {@link #byColumns(int...)}.
+     */
+    public KissSorter(KissParser csvParser, Comparator<String[]> comparator) {
+        this(csvParser, comparator, DEFAULT_MEMORY_BUDGET, null);
+    }
+
+    /**
+     * @param csvParser     the parser to use to parse input
+     * @param comparator    the record order, such as one from {@link #byColumns(int...)}.
+     * @param memoryBudget  the approximate number of bytes of records to hold in memory.
+     *                      Up to twice this is used while one run is sorted and the next read.
+     * @param tempDirectory where to spill runs. Can be null for the default temporary directory.
+     */
+    public KissSorter(KissParser csvParser, Comparator<String[]> comparator, long memoryBudget, Path tempDirectory) {
+        this(csvParser, comparator, memoryBudget, tempDirectory, MAX_FAN_IN);
+    }
+
+    KissSorter(KissParser csvParser, Comparator<String[]> comparator, long memoryBudget, Path tempDirectory,
+               int maxFanIn) {
+        if (memoryBudget < 1) {
+            throw new IllegalArgumentException("Memory budget must be positive");
+        }
+        if (maxFanIn < 2) {
+            throw new IllegalArgumentException("Fan in must be at least 2");
+        }
+        this.parser = csvParser;
+        this.comparator = comparator;
+        this.memoryBudget = memoryBudget;
+        this.tempDirectory = tempDirectory;
+        this.maxFanIn = maxFanIn;
+    }
+
+    /**
+     * @param columns the zero based key columns, most significant first.
+     * @return a comparator ordering records by the Strings in the key columns. A missing
+     * column sorts before any value.
+     */
+    public static Comparator<String[]> byColumns(int... columns) {
+        return byColumns(Comparator.naturalOrder(), columns);
+    }
+
+    /**
+     * @param order   the order of the values in each key column.
+     * @param columns the zero based key columns, most significant first.
+     * @return a comparator ordering records by the key columns. A missing column sorts
+     * before any value.
+     */
+    public static Comparator<String[]> byColumns(Comparator<String> order, int... columns) {
+        int[] keys = columns.clone();
+        return (a, b) -> {
+            for (int c : keys) {
+                String x = c < a.length ? a[c] : null;
+                String y = c < b.length ? b[c] : null;
+                int cmp = x == null ? (y == null ? 0 : -1) : y == null ? 1 : order.compare(x, y);
+                if (cmp != 0) {
+                    return cmp;
+                }
+            }
+            return 0;
+        };
+    }
+
+    /**
+     * Sorts a CSV file into another.
+     *
+     * @param in         the CSV file to sort.
+     * @param out        the sorted CSV file to write.
+     * @param charset    the character set of both files.
+     * @param headerRows the number of records at the start that are copied first and not sorted.
+     * @return the number of records sorted, not counting the header rows.
+     * @throws IOException              if a file cannot be read or written.
+     * @throws IllegalArgumentException if the parser has no quote character.
+     */
+    public long sort(Path in, Path out, Charset charset, int headerRows) throws IOException {
+        char quote = quoteChar(parser);
+        try (KissReader reader = new KissReader(Files.newBufferedReader(in, charset), parser);
+             KissWriter writer = new KissWriter(parser.getSeparator(), Files.newBufferedWriter(out, charset),
+                 quote)) {
+            for (int n = 0; n < headerRows; n++) {
+                String[] header = reader.readNext();
+                if (header == null) {
+                    return 0;
+                }
+                writer.writeNext(header);
+            }
+            return sort(reader, writer);
+        }
+    }
+
+    /**
+     * Sorts CSV data from a reader into a writer.
+     *
+     * @param in  the CSV data to sort.
+     * @param out where to write the sorted CSV data.
+     * @return the number of records sorted.
+     * @throws IllegalArgumentException if the parser has no quote character.
+     */
+    public long sort(Reader in, Writer out) {
+        KissWriter writer = new KissWriter(parser.getSeparator(), out, quoteChar(parser));
+        long count = sort(new KissReader(in, parser), writer);
+        writer.flush();
+        return count;
+    }
+
+    /**
+     * Sorts the rest of the records of a reader into a writer. Neither is closed.
+     *
+     * @param reader the records to sort.
+     * @param writer where to write the sorted records.
+     * @return the number of records sorted.
+     */
+    public long sort(KissReader reader, KissWriter writer) {
+        List<Path> runs = new ArrayList<>();
+        CompletableFuture<Path> spilling = null;
+        try {
+            long count = 0;
+            String[][] run = new String[1024][];
+            while (true) {
+                int size = 0;
+                long bytes = 0;
+                String[] record;
+                while (bytes < memoryBudget && (record = reader.readNext()) != null) {
+                    if (size == run.length) {
+                        run = Arrays.copyOf(run, size * 2);
+                    }
+                    run[size++] = record;
+                    bytes += estimateSize(record);
+                }
+                count += size;
+                boolean last = bytes < memoryBudget;
+                if (last && runs.isEmpty() && spilling == null) {
+                    // everything fits in memory: no need to spill
+                    Arrays.parallelSort(run, 0, size, comparator);
+                    for (int n = 0; n < size; n++) {
+                        writer.writeNext(run[n]);
+                    }
+                    return count;
+                }
+                if (spilling != null) {
+                    runs.add(join(spilling));
+                    spilling = null;
+                }
+                String[][] full = run;
+                int fullSize = size;
+                spilling = CompletableFuture.supplyAsync(() -> spill(full, fullSize));
+                if (last) {
+                    runs.add(join(spilling));
+                    spilling = null;
+                    break;
+                }
+                run = new String[Math.max(1024, size)][];
+            }
+            merge(runs, writer);
+            return count;
+        } finally {
+            if (spilling != null) {
+                // reading failed while a run was spilling, so wait for its file
+                try {
+                    runs.add(join(spilling));
+                } catch (RuntimeException ex) {
+                    // the spill failed too
+                }
+            }
+            for (Path run : runs) {
+                try {
+                    Files.deleteIfExists(run);
+                } catch (IOException ex) {
+                    // best effort
+                }
+            }
+        }
+    }
+
+    private Path spill(String[][] run, int size) {
+        Arrays.parallelSort(run, 0, size, comparator);
+        try {
+            Path file = newRun();
+            try (KissWriter writer = new KissWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8))) {
+                for (int n = 0; n < size; n++) {
+                    writer.writeNext(true, run[n]);
+                    run[n] = null;
+                }
+            }
+            return file;
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private Path newRun() throws IOException {
+        return tempDirectory == null
+            ? Files.createTempFile("kisscsv-sort", ".csv")
+            : Files.createTempFile(tempDirectory, "kisscsv-sort", ".csv");
+    }
+
+    /**
+     * Merges the runs into the writer. Each file created on the way is added to the
+     * runs, so it is deleted with them.
+     */
+    private void merge(List<Path> runs, KissWriter writer) {
+        List<Path> level = new ArrayList<>(runs);
+        try {
+            while (level.size() > maxFanIn) {
+                // neighbouring runs are merged, so run order still breaks ties
+                List<Path> next = new ArrayList<>();
+                for (int n = 0; n < level.size(); n += maxFanIn) {
+                    List<Path> group = level.subList(n, Math.min(n + maxFanIn, level.size()));
+                    if (group.size() == 1) {
+                        next.add(group.get(0));
+                        continue;
+                    }
+                    Path file = newRun();
+                    runs.add(file);
+                    try (KissWriter kw = new KissWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8))) {
+                        merge(group, kw, true);
+                    }
+                    for (Path run : group) {
+                        Files.delete(run);
+                    }
+                    next.add(file);
+                }
+                level = next;
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        merge(level, writer, false);
+    }
+
+    private void merge(List<Path> runs, KissWriter writer, boolean quoteAll) {
+        List<KissReader> readers = new ArrayList<>();
+        // ties are broken by run number, which keeps the sort stable
+        PriorityQueue<Head> heap = new PriorityQueue<>(Math.max(1, runs.size()),
+            (a, b) -> {
+                int cmp = comparator.compare(a.record, b.record);
+                return cmp != 0 ? cmp : Integer.compare(a.run, b.run);
+            });
+        try {
+            for (int n = 0; n < runs.size(); n++) {
+                KissReader kr = new KissReader(Files.newBufferedReader(runs.get(n), StandardCharsets.UTF_8), RUN_PARSER);
+                readers.add(kr);
+                String[] first = kr.readNext();
+                if (first != null) {
+                    heap.add(new Head(first, n));
+                }
+            }
+            Head head;
+            while ((head = heap.poll()) != null) {
+                writer.writeNext(quoteAll, head.record);
+                head.record = readers.get(head.run).readNext();
+                if (head.record != null) {
+                    heap.add(head);
+                }
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        } finally {
+            for (KissReader kr : readers) {
+                kr.close();
+            }
+        }
+    }
+
+    private static Path join(CompletableFuture<Path> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new KissException("Interrupted while sorting", ex);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new KissException("Failed to spill sorted run: " + cause, ex);
+        }
+    }
+
+    /**
+     * The quote character for output that reads back the same with the parser. Without
+     * a quote character the parser would read a quoted field's quotes as data.
+     */
+    private static char quoteChar(KissParser parser) {
+        Character quote = parser.getQuoteCharacter();
+        if (quote == null) {
+            throw new IllegalArgumentException("Sorting into a file or writer needs a parser with a quote character");
+        }
+        return quote;
+    }
+
+    /**
+     * Rough heap size of a record: object headers plus two bytes a char.
+     */
+    private static long estimateSize(String[] record) {
+        long size = 16 + 4L * record.length;
+        for (String s : record) {
+            size += 40 + 2L * s.length();
+        }
+        return size;
+    }
+
+    private static final class Head {
+
+        String[] record;
+        final int run;
+
+        Head(String[] record, int run) {
+            this.record = record;
+            this.run = run;
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package github.footloosejava.kisscsv;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits a CSV file into parts that are each valid CSV, without breaking records
+ * that have line ends in quoted values.
+ * <p>
+ * The file is read once, looking only for record ends (see {@link KissBoundaryScanner}),
+ * and each part is copied byte for byte with {@link FileChannel#transferTo}, so nothing
+ * is decoded or re-encoded. Header records can be repeated at the start of every part.
+ * <p>
+ * The file must be in UTF-8 or another ASCII compatible charset, with an ASCII quote
+ * character.
+ */
+public final class KissSplitter {
+
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private final KissParser parser;
+
+    /**
+     * @param csvParser the parser the file is read with. Only its quote character is used.
+     */
+    public KissSplitter(KissParser csvParser) {
+        this.parser = csvParser;
+    }
+
+    /**
+     * Splits a file into parts of about the same size. A part ends at the first record
+     * end at or after the part size, so parts are at least that size, except the last.
+     *
+     * @param in         the CSV file.
+     * @param outDir     where to write the parts, named after the file: data-00001.csv and so on.
+     * @param partBytes  the size of each part, not counting header records.
+     * @param headerRows the number of records at the start to repeat at the start of each part.
+     * @return the parts, in order.
+     * @throws IOException if the file cannot be read or a part cannot be written.
+     */
+    public List<Path> splitBySize(Path in, Path outDir, long partBytes, int headerRows) throws IOException {
+        if (partBytes < 1) {
+            throw new IllegalArgumentException("Part size must be positive");
+        }
+        return split(in, outDir, partBytes, Long.MAX_VALUE, headerRows);
+    }
+
+    /**
+     * Splits a file into parts with the same number of records, except the last.
+     *
+     * @param in          the CSV file.
+     * @param outDir      where to write the parts, named after the file: data-00001.csv and so on.
+     * @param partRecords the number of records in each part, not counting header records.
+     * @param headerRows  the number of records at the start to repeat at the start of each part.
+     * @return the parts, in order.
+     * @throws IOException if the file cannot be read or a part cannot be written.
+     */
+    public List<Path> splitByRecords(Path in, Path outDir, long partRecords, int headerRows) throws IOException {
+        if (partRecords < 1) {
+            throw new IllegalArgumentException("Part record count must be positive");
+        }
+        return split(in, outDir, Long.MAX_VALUE, partRecords, headerRows);
+    }
+
+    private List<Path> split(Path in, Path outDir, long partBytes, long partRecords, int headerRows) throws IOException {
+        List<Path> parts = new ArrayList<>();
+        KissBoundaryScanner scanner = new KissBoundaryScanner(parser);
+        try (FileChannel channel = FileChannel.open(in, StandardOpenOption.READ)) {
+            long size = channel.size();
+            byte[] buf = new byte[BUFFER_SIZE];
+            long headerEnd = headerRows == 0 ? 0 : -1;
+            long partStart = 0;
+            long records = 0;
+            long bufStart = 0;
+            while (bufStart < size) {
+                ByteBuffer bb = ByteBuffer.wrap(buf);
+                while (bb.hasRemaining() && channel.read(bb, bufStart + bb.position()) > 0) {
+                    // keep reading
+                }
+                int length = bb.position();
+                if (length == 0) {
+                    break;
+                }
+                int n = 0;
+                while ((n = scanner.nextBoundary(buf, n, length)) != -1) {
+                    long end = bufStart + n;
+                    if (headerEnd == -1) {
+                        if (scanner.recordEnds() == headerRows) {
+                            headerEnd = end;
+                            partStart = end;
+                        }
+                        continue;
+                    }
+                    if (++records == partRecords || end - partStart >= partBytes) {
+                        parts.add(writePart(channel, in, outDir, parts.size() + 1, headerEnd, partStart, end));
+                        partStart = end;
+                        records = 0;
+                    }
+                }
+                bufStart += length;
+            }
+            if (headerEnd == -1) {
+                // nothing but header records
+                headerEnd = size;
+                partStart = size;
+            }
+            if (partStart < size || parts.isEmpty()) {
+                parts.add(writePart(channel, in, outDir, parts.size() + 1, headerEnd, partStart, size));
+            }
+        }
+        return parts;
+    }
+
+    private static Path writePart(FileChannel from, Path in, Path outDir, int number, long headerEnd,
+                                  long start, long end) throws IOException {
+        String name = in.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        String partName = dot > 0
+            ? String.format("%s-%05d%s", name.substring(0, dot), number, name.substring(dot))
+            : String.format("%s-%05d", name, number);
+        Path part = outDir.resolve(partName);
+        try (FileChannel to = FileChannel.open(part, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING)) {
+            transfer(from, 0, headerEnd, to);
+            transfer(from, start, end, to);
+        }
+        return part;
+    }
+
+    private static void transfer(FileChannel from, long start, long end, FileChannel to) throws IOException {
+        long pos = start;
+        while (pos < end) {
+            long n = from.transferTo(pos, end - pos, to);
+            if (n <= 0) {
+                throw new IOException("File shrank while being split");
+            }
+            pos += n;
+        }
+    }
+
+    /**
+     * Splits a file from the command line:
+     * <pre>
+     * KissSplitter file.csv outDir bytes|records count [headerRows]
+     * </pre>
+     *
+     * @param args the file, the directory for the parts, how to split, the size or
+     *             record count of each part and, optionally, the number of header records.
+     * @throws IOException if the file cannot be read or a part cannot be written.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 4 || !(args[2].equals("bytes") || args[2].equals("records"))) {
+            System.err.println("Usage: KissSplitter file.csv outDir bytes|records count [headerRows]");
+            System.exit(2);
+        }
+        Path in = Paths.get(args[0]);
+        Path outDir = Paths.get(args[1]);
+        long count = Long.parseLong(args[3]);
+        int headerRows = args.length > 4 ? Integer.parseInt(args[4]) : 0;
+        KissSplitter splitter = new KissSplitter(new KissParser());
+        List<Path> parts = args[2].equals("bytes")
+            ? splitter.splitBySize(in, outDir, count, headerRows)
+            : splitter.splitByRecords(in, outDir, count, headerRows);
+        for (Path part : parts) {
+            System.out.println(part);
+        }
+    }
+}
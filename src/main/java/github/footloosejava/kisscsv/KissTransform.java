@@ -0,0 +1,240 @@
+package github.footloosejava.kisscsv;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.util.function.Function;
+
+/**
+ * Rewrites CSV records column by column: dropping, reordering, renaming and mapping
+ * columns on the way from a {@link KissReader} to a {@link KissWriter}.
+ * <p>
+ * Fields go from the parser's buffer to the writer without a String[] per record.
+ * When the output columns keep the input order they are written as they are parsed;
+ * otherwise the record's chars are held once so the columns can be picked in any order.
+ * If the writer uses the same separator and quote character as the parser, a field
+ * that was not quoted, and holds no lone carriage return, is copied without checking
+ * whether it needs quotes.
+ * <p>
+ * A transform is immutable and can be used by any number of threads.
+ */
+public final class KissTransform {
+
+    private static final KissField EMPTY = new KissField().set("", 0, 0, true);
+
+    private final KissParser parser;
+    private final Column[] columns;
+    private final boolean inOrder;
+
+    /**
+     * One column of the output.
+     */
+    public static final class Column {
+
+        private final int source;
+        private final String name;
+        private final Function<? super KissField, ? extends CharSequence> mapper;
+
+        private Column(int source, String name, Function<? super KissField, ? extends CharSequence> mapper) {
+            if (source < 0) {
+                throw new IllegalArgumentException("Column must be zero or more");
+            }
+            this.source = source;
+            this.name = name;
+            this.mapper = mapper;
+        }
+    }
+
+    /**
+     * @param source the zero based input column.
+     * @return an output column that is a copy of the input column.
+     */
+    public static Column copy(int source) {
+        return new Column(source, null, null);
+    }
+
+    /**
+     * @param source the zero based input column.
+     * @param name   the name to write in header records in place of the input's.
+     * @return an output column that is a copy of the input column under a new name.
+     */
+    public static Column rename(int source, String name) {
+        return new Column(source, name, null);
+    }
+
+    /**
+     * @param source the zero based input column.
+     * @param name   the name to write in header records, or null to keep the input's.
+     * @param mapper makes the output field from the input field, which is only valid
+     *               during the call. Missing input fields are passed as empty ones.
+     * @return an output column computed from the input column.
+     */
+    public static Column map(int source, String name, Function<? super KissField, ? extends CharSequence> mapper) {
+        return new Column(source, name, mapper);
+    }
+
+    /**
+     * @param csvParser the parser the input is read with.
+     * @param columns   the output columns, in order. Input columns may be left out or repeated.
+     */
+    public KissTransform(KissParser csvParser, Column... columns) {
+        this.parser = csvParser;
+        this.columns = columns.clone();
+        boolean increasing = true;
+        for (int n = 1; n < columns.length; n++) {
+            increasing &= columns[n].source > columns[n - 1].source;
+        }
+        this.inOrder = increasing;
+    }
+
+    /**
+     * Transforms the rest of the records of a reader. Neither the reader nor the writer
+     * is closed.
+     *
+     * @param reader     the records to transform. Must use this transform's parser.
+     * @param writer     where to write the transformed records.
+     * @param headerRows the number of records to read first that are header records.
+     * @return the number of records transformed, not counting header records.
+     */
+    public long transform(KissReader reader, KissWriter writer, int headerRows) {
+        boolean plain = writer.writesPlainAs(parser);
+        long records = 0;
+        if (inOrder) {
+            InOrder visitor = new InOrder(writer, plain);
+            for (int row = -headerRows; ; row++) {
+                visitor.header = row < 0;
+                visitor.next = 0;
+                if (reader.visitNext(visitor) == -1) {
+                    return records;
+                }
+                for (int n = visitor.next; n < columns.length; n++) {
+                    write(columns[n], EMPTY, writer, plain, visitor.header);
+                }
+                writer.endRecord();
+                records += row < 0 ? 0 : 1;
+            }
+        }
+        KissHeldFields held = new KissHeldFields();
+        for (int row = -headerRows; ; row++) {
+            held.clear();
+            if (reader.visitNext(held) == -1) {
+                return records;
+            }
+            for (Column column : columns) {
+                KissField field = column.source < held.size() ? held.field(column.source) : EMPTY;
+                write(column, field, writer, plain, row < 0);
+            }
+            writer.endRecord();
+            records += row < 0 ? 0 : 1;
+        }
+    }
+
+    /**
+     * Transforms a file in parallel, in 4MB chunks.
+     *
+     * @param in         the CSV file.
+     * @param charset    UTF-8 or an ASCII compatible single byte charset.
+     * @param headerRows the number of records at the start that are header records.
+     * @param out        where to write the transformed records. It is flushed, not closed.
+     * @param writers    makes a KissWriter over a Writer, with the output separator, quote
+     *                   character and line end, such as {@code w -> new KissWriter(';', w)}.
+     * @return the number of records transformed, not counting header records.
+     * @throws IOException if the file cannot be read or the output cannot be written.
+     */
+    public long transform(Path in, Charset charset, int headerRows, Writer out,
+                          Function<Writer, KissWriter> writers) throws IOException {
+        return transform(in, charset, headerRows, KissChunker.DEFAULT_CHUNK_SIZE, out, writers);
+    }
+
+    /**
+     * Transforms a file in parallel. Each chunk is transformed on the common fork join
+     * pool into its own writer, and the results are written out in order. A chunk grows
+     * to at most four times the chunk size to end on a record boundary, so a quote that
+     * is never closed fails with a KissException rather than reading the rest of the
+     * file into one chunk.
+     *
+     * @param in         the CSV file.
+     * @param charset    UTF-8 or an ASCII compatible single byte charset.
+     * @param headerRows the number of records at the start that are header records.
+     * @param chunkSize  the number of bytes to read for each chunk.
+     * @param out        where to write the transformed records. It is flushed, not closed.
+     * @param writers    makes a KissWriter over a Writer, with the output separator, quote
+     *                   character and line end.
+     * @return the number of records transformed, not counting header records.
+     * @throws IOException if the file cannot be read or the output cannot be written.
+     */
+    public long transform(Path in, Charset charset, int headerRows, int chunkSize, Writer out,
+                          Function<Writer, KissWriter> writers) throws IOException {
+        long[] records = new long[1];
+        try {
+            KissChunker.run(in, parser, headerRows, chunkSize, (chunk, offset, skipLines, recordNumber) -> {
+                StringWriter text = new StringWriter(chunk.length + chunk.length / 8);
+                KissWriter kw = writers.apply(text);
+                KissInput input = new KissInput(Channels.newChannel(new ByteArrayInputStream(chunk)), charset);
+                long count = transform(KissReader.atRecord(input, 0, parser, recordNumber), kw, skipLines);
+                kw.flush();
+                return new Part(text.toString(), count);
+            }, part -> {
+                try {
+                    out.write(part.text);
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+                records[0] += part.records;
+            });
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+        out.flush();
+        return records[0];
+    }
+
+    private static void write(Column column, KissField field, KissWriter writer, boolean plain, boolean header) {
+        if (header ? column.name != null : column.mapper != null) {
+            writer.writeField(header ? column.name : column.mapper.apply(field));
+        } else if (plain) {
+            writer.writeParsedField(field);
+        } else {
+            writer.writeField(field);
+        }
+    }
+
+    /**
+     * Writes the fields of a record as they are parsed, for output columns in input order.
+     */
+    private final class InOrder implements KissFieldVisitor {
+
+        private final KissWriter writer;
+        private final boolean plain;
+        boolean header;
+        int next;
+
+        InOrder(KissWriter writer, boolean plain) {
+            this.writer = writer;
+            this.plain = plain;
+        }
+
+        @Override
+        public void visit(int index, KissField field) {
+            if (next < columns.length && columns[next].source == index) {
+                write(columns[next++], field, writer, plain, header);
+            }
+        }
+    }
+
+    private static final class Part {
+
+        final String text;
+        final long records;
+
+        Part(String text, long records) {
+            this.text = text;
+            this.records = records;
+        }
+    }
+}
@@ -0,0 +1,268 @@
+package github.footloosejava.kisscsv;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Checks that CSV input is well formed, and optionally that every record has the
+ * same number of fields, without keeping any field.
+ * <p>
+ * Records are run through the parser with {@link KissParser#DISCARD}, so only field
+ * counts come out of it. Malformed records are reported and skipped the same way as
+ * with a {@link KissQuarantine}, and checking carries on. As with a lenient
+ * {@link KissReader}, a record longer than the mark limit of its {@link KissInput}
+ * is malformed, so an unclosed quote costs one line rather than the rest of the
+ * input. Files are checked in parallel chunks; record numbers in a chunk after a
+ * malformed record can be off if the malformed record has an unbalanced quote.
+ */
+public final class KissValidator {
+
+    /**
+     * The expected field count to check only that records are well formed.
+     */
+    public static final int ANY_FIELD_COUNT = -1;
+
+    private final KissParser parser;
+    private final int expectedFields;
+    private final int maxErrors;
+
+    /**
+     * @param csvParser      the parser to use to parse input
+     * @param expectedFields the number of fields every record must have, or {@link #ANY_FIELD_COUNT}.
+     * @param maxErrors      the number of errors to keep the details of. All are counted.
+     */
+    public KissValidator(KissParser csvParser, int expectedFields, int maxErrors) {
+        this.parser = csvParser;
+        this.expectedFields = expectedFields;
+        this.maxErrors = maxErrors;
+    }
+
+    /**
+     * Checks a file in parallel, in 4MB chunks.
+     *
+     * @param path    the CSV file.
+     * @param charset UTF-8 or an ASCII compatible single byte charset.
+     * @return the report. Offsets are byte offsets into the file.
+     * @throws IOException if the file cannot be read.
+     */
+    public Report validate(Path path, Charset charset) throws IOException {
+        return validate(path, charset, KissChunker.DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Checks a file in parallel.
+     *
+     * @param path      the CSV file.
+     * @param charset   UTF-8 or an ASCII compatible single byte charset.
+     * @param chunkSize the number of bytes to read for each chunk.
+     * @return the report. Offsets are byte offsets into the file.
+     * @throws IOException if the file cannot be read.
+     */
+    public Report validate(Path path, Charset charset, int chunkSize) throws IOException {
+        Report report = new Report(maxErrors);
+        KissChunker.run(path, parser, 0, chunkSize, (chunk, offset, skipLines, recordNumber) -> {
+            KissInput input = new KissInput(Channels.newChannel(new ByteArrayInputStream(chunk)), charset);
+            return validate(input, offset, recordNumber);
+        }, report::merge);
+        return report;
+    }
+
+    /**
+     * Checks the rest of a reader. The reader is not closed.
+     *
+     * @param reader the CSV input. Offsets are byte offsets for a {@link KissInput} over a
+     *               byte channel, otherwise char offsets.
+     * @return the report.
+     */
+    public Report validate(Reader reader) {
+        return validate(reader instanceof KissInput ? (KissInput) reader : new KissInput(reader), 0, 1);
+    }
+
+    private Report validate(KissInput input, long offset, long recordNumber) {
+        input.boundRecordsToMarkLimit();
+        Report report = new Report(maxErrors);
+        long number = recordNumber;
+        try {
+            while (true) {
+                input.markRecord();
+                int count;
+                try {
+                    count = parser.parseNext(input, KissParser.DISCARD, null);
+                } catch (KissException ex) {
+                    report.error(number++, offset + input.markedPosition(), ex.getMessage());
+                    KissReader.skipMalformed(input);
+                    continue;
+                }
+                if (count == -1) {
+                    return report;
+                }
+                report.record(count);
+                if (expectedFields != ANY_FIELD_COUNT && count != expectedFields) {
+                    report.error(number, offset + input.markedPosition(),
+                        "Expected " + expectedFields + " fields but found " + count);
+                }
+                number++;
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * The outcome of a check.
+     */
+    public static final class Report {
+
+        private final int maxErrors;
+        private final List<Problem> problems = new ArrayList<>();
+        private long[] fieldCounts = new long[16];
+        private long records;
+        private long errors;
+
+        private Report(int maxErrors) {
+            this.maxErrors = maxErrors;
+        }
+
+        private void record(int fieldCount) {
+            if (fieldCount >= fieldCounts.length) {
+                fieldCounts = Arrays.copyOf(fieldCounts, Math.max(fieldCount + 1, fieldCounts.length * 2));
+            }
+            fieldCounts[fieldCount]++;
+            records++;
+        }
+
+        private void error(long recordNumber, long offset, String message) {
+            errors++;
+            if (problems.size() < maxErrors) {
+                problems.add(new Problem(recordNumber, offset, message));
+            }
+        }
+
+        private void merge(Report other) {
+            for (int n = 0; n < other.fieldCounts.length; n++) {
+                if (other.fieldCounts[n] > 0) {
+                    if (n >= fieldCounts.length) {
+                        fieldCounts = Arrays.copyOf(fieldCounts, other.fieldCounts.length);
+                    }
+                    fieldCounts[n] += other.fieldCounts[n];
+                }
+            }
+            records += other.records;
+            errors += other.errors;
+            for (Problem p : other.problems) {
+                if (problems.size() == maxErrors) {
+                    break;
+                }
+                problems.add(p);
+            }
+        }
+
+        /**
+         * @return true if there were no errors.
+         */
+        public boolean isValid() {
+            return errors == 0;
+        }
+
+        /**
+         * @return the number of well formed records.
+         */
+        public long getRecordCount() {
+            return records;
+        }
+
+        /**
+         * @param fieldCount a number of fields.
+         * @return the number of well formed records with that many fields.
+         */
+        public long getRecordCount(int fieldCount) {
+            return fieldCount >= 0 && fieldCount < fieldCounts.length ? fieldCounts[fieldCount] : 0;
+        }
+
+        /**
+         * @return the most fields in a well formed record.
+         */
+        public int getMaxFieldCount() {
+            for (int n = fieldCounts.length - 1; n > 0; n--) {
+                if (fieldCounts[n] > 0) {
+                    return n;
+                }
+            }
+            return 0;
+        }
+
+        /**
+         * @return the number of malformed records and records with the wrong field count.
+         */
+        public long getErrorCount() {
+            return errors;
+        }
+
+        /**
+         * @return the first errors, in the order they are in the input.
+         */
+        public List<Problem> getErrors() {
+            return Collections.unmodifiableList(problems);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(records).append(" records, ").append(errors).append(" errors\n");
+            for (int n = 0; n < fieldCounts.length; n++) {
+                if (fieldCounts[n] > 0) {
+                    sb.append(n).append(" fields: ").append(fieldCounts[n]).append('\n');
+                }
+            }
+            for (Problem p : problems) {
+                sb.append(p).append('\n');
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * One error in the input.
+     */
+    public static final class Problem {
+
+        private final long recordNumber;
+        private final long offset;
+        private final String message;
+
+        private Problem(long recordNumber, long offset, String message) {
+            this.recordNumber = recordNumber;
+            this.offset = offset;
+            this.message = message;
+        }
+
+        public long getRecordNumber() {
+            return recordNumber;
+        }
+
+        /**
+         * @return the position of the start of the record.
+         */
+        public long getOffset() {
+            return offset;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        @Override
+        public String toString() {
+            return "rec no. " + recordNumber + " at " + offset + ": " + message;
+        }
+    }
+}
@@ -25,6 +25,8 @@ public final class KissWriter implements Closeable, Flushable {
     private final char separator;
     private final char quotechar;
     private final String lineEnd;
+    private boolean inRecord;
+    private char[] scratch = new char[64];
 
     /**
      * Constructs CsvWriter using a comma for the separator.
@@ -135,7 +137,105 @@ public final class KissWriter implements Closeable, Flushable {
         }
     }
 
-    private boolean checkNeedsQuotes(String nextElement) {
+    /**
+     * Writes the next field of the current record, quoting it only if necessary. Used
+     * with {@link #endRecord()} to write a record one field at a time.
+     *
+     * @param field the field. Null is written as an empty field.
+     */
+    public void writeField(CharSequence field) {
+        writeField(false, field);
+    }
+
+    /**
+     * Writes the next field of the current record. Used with {@link #endRecord()} to
+     * write a record one field at a time.
+     *
+     * @param quote Force the field to be surrounded in quotes. Otherwise, quotes will
+     *              only be used when necessary.
+     * @param field the field. Null is written as an empty field.
+     */
+    public void writeField(boolean quote, CharSequence field) {
+        try {
+            if (inRecord) {
+                writer.write(separator);
+            }
+            inRecord = true;
+            // nulls and empties just become empty fields
+            if (field == null || field.length() == 0) {
+                return;
+            }
+            if (quote || checkNeedsQuotes(field)) {
+                writeQuotedField(field);
+            } else {
+                writeChars(field);
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * @return true if plain fields from the parser can be written as they are, because
+     * this writer uses the same separator and quote character.
+     */
+    boolean writesPlainAs(KissParser parser) {
+        Character quote = parser.getQuoteCharacter();
+        return parser.getSeparator() == separator && quote != null && quote == quotechar;
+    }
+
+    /**
+     * Writes the next field of the current record, skipping the check for quotes if the
+     * field is plain. Only for fields from a parser this writer {@link #writesPlainAs}.
+     */
+    void writeParsedField(KissField field) {
+        if (!field.isPlain()) {
+            writeField(false, field);
+            return;
+        }
+        try {
+            if (inRecord) {
+                writer.write(separator);
+            }
+            inRecord = true;
+            writeChars(field);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Ends the record started with {@link #writeField(CharSequence)}.
+     */
+    public void endRecord() {
+        try {
+            inRecord = false;
+            writer.append(lineEnd);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private void writeChars(CharSequence cs) throws IOException {
+        if (cs instanceof String) {
+            writer.write((String) cs);
+            return;
+        }
+        int len = cs.length();
+        if (scratch.length < len) {
+            scratch = new char[Math.max(len, scratch.length * 2)];
+        }
+        if (cs instanceof KissField) {
+            ((KissField) cs).getChars(scratch);
+        } else {
+            for (int n = 0; n < len; n++) {
+                scratch[n] = cs.charAt(n);
+            }
+        }
+        writer.write(scratch, 0, len);
+    }
+
+    private boolean checkNeedsQuotes(CharSequence nextElement) {
         for (int n = 0; n < nextElement.length(); n++) {
             final char c = nextElement.charAt(n);
             if (c == quotechar || c == separator
@@ -146,7 +246,7 @@ public final class KissWriter implements Closeable, Flushable {
         return false;
     }
 
-    private void writeQuotedField(String nextElement) {
+    private void writeQuotedField(CharSequence nextElement) {
         try {
             // simple: escape all quotes only
             writer.append(quotechar);
@@ -4,8 +4,27 @@ import junit.framework.Test;
 import junit.framework.TestCase;
 import junit.framework.TestSuite;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Reader;
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipException;
 
 import static org.junit.Assert.assertArrayEquals;
 
@@ -384,4 +403,949 @@ public class AppTest extends TestCase {
         assertEquals(-1, cr.readNext(sb::append));
         assertEquals("", sb.toString());
     }
-}
\ No newline at end of file
+
+    public void testFilterEqualTo() {
+        String data = "1,IBM,NYSE,10\n"
+            + "2,\"SAP\nAG\",XETRA,\"x,\"\"y\"\n"
+            + "3,GE, NYSE ,30\r\n"
+            + "4,\"short\"\n"
+            + "5,MSFT,NASDAQ,50\n"
+            + "6,KO,NYSE,60";
+
+        KissReader cr = new KissReader(new StringReader(data), 0, new KissParser(true), KissFilter.equalTo(2, "NYSE"));
+        assertArrayEquals(new String[]{"1", "IBM", "NYSE", "10"}, cr.readNext());
+        assertArrayEquals(new String[]{"3", "GE", "NYSE", "30"}, cr.readNext());
+        assertArrayEquals(new String[]{"6", "KO", "NYSE", "60"}, cr.readNext());
+        assertArrayEquals(null, cr.readNext());
+    }
+
+    public void testFilterStartsWithFirstColumn() {
+        String data = "AB,1\n\"A\"\"X\",2\nBA,3\nA";
+
+        KissReader cr = new KissReader(new StringReader(data), 0, new KissParser(), KissFilter.startsWith(0, "A"));
+        assertArrayEquals(new String[]{"AB", "1"}, cr.readNext());
+        assertArrayEquals(new String[]{"A\"X", "2"}, cr.readNext());
+        assertArrayEquals(new String[]{"A"}, cr.readNext());
+        assertArrayEquals(null, cr.readNext());
+    }
+
+    public void testFieldVisitor() {
+        KissReader cr = new KissReader(new StringReader("a, \"b\" ,c"));
+
+        StringBuilder sb = new StringBuilder();
+        assertEquals(3, cr.visitNext((index, field) -> sb.append(index).append(field)));
+        assertEquals("0a1b2c", sb.toString());
+    }
+
+    public void testLenientQuarantine() {
+        String data = "a,b\n"
+            + "\"x\" y,z\n"
+            + "c,\"d\ne\"\n"
+            + "f,\"g\n"
+            + "h,i";
+
+        List<String> bad = new ArrayList<>();
+        KissReader cr = new KissReader(new StringReader(data), 0, new KissParser(), null,
+            (recordNumber, offset, rawText, error) -> bad.add(recordNumber + "@" + offset + ":" + rawText));
+
+        assertArrayEquals(new String[]{"a", "b"}, cr.readNext());
+        assertArrayEquals(new String[]{"c", "d\ne"}, cr.readNext());
+        assertArrayEquals(new String[]{"h", "i"}, cr.readNext());
+        assertArrayEquals(null, cr.readNext());
+        assertEquals(2, cr.getErrorCount());
+        assertEquals("[2@4:\"x\" y,z, 4@20:f,\"g]", bad.toString());
+    }
+
+    public void testLenientByteOffsets() {
+        byte[] data = "\u00e9,1\n\"\u20ac\"x,2\n3,4\n".getBytes(StandardCharsets.UTF_8);
+        StringWriter quarantined = new StringWriter();
+        long[] offset = {-1};
+        KissQuarantine toWriter = KissQuarantine.to(quarantined);
+
+        KissReader cr = new KissReader(new KissInput(Channels.newChannel(new ByteArrayInputStream(data)), StandardCharsets.UTF_8),
+            0, new KissParser(), null, (recordNumber, off, rawText, error) -> {
+                offset[0] = off;
+                toWriter.accept(recordNumber, off, rawText, error);
+            });
+
+        assertArrayEquals(new String[]{"\u00e9", "1"}, cr.readNext());
+        assertArrayEquals(new String[]{"3", "4"}, cr.readNext());
+        assertArrayEquals(null, cr.readNext());
+        assertEquals(5, offset[0]);
+        assertEquals("\"\u20ac\"x,2\n", quarantined.toString());
+    }
+
+    public void testLenientResyncsAfterClosingQuote() {
+        for (String bad : new String[]{"\"x\" \"y\",z", "\"x\"y\"z,w"}) {
+            List<String> quarantined = new ArrayList<>();
+            KissReader cr = new KissReader(new StringReader("a,b\n" + bad + "\nc,d\ne,f\n"), 0, new KissParser(), null,
+                (recordNumber, offset, rawText, error) -> quarantined.add(recordNumber + ":" + rawText));
+
+            assertArrayEquals(new String[]{"a", "b"}, cr.readNext());
+            assertArrayEquals(new String[]{"c", "d"}, cr.readNext());
+            assertArrayEquals(new String[]{"e", "f"}, cr.readNext());
+            assertArrayEquals(null, cr.readNext());
+            assertEquals("[2:" + bad + "]", quarantined.toString());
+        }
+    }
+
+    public void testLenientBoundsUnterminatedQuote() {
+        StringBuilder data = new StringBuilder("a,\"b\n");
+        for (int n = 0; n < 200; n++) {
+            data.append(n).append(",x\n");
+        }
+        // a mark limit of 64 chars: the open quote is given up on long before the end
+        KissInput input = new KissInput(Channels.newChannel(new ByteArrayInputStream(
+            data.toString().getBytes(StandardCharsets.UTF_8))), StandardCharsets.UTF_8, 16, 64);
+        List<String> quarantined = new ArrayList<>();
+        KissReader cr = new KissReader(input, 0, new KissParser(), null,
+            (recordNumber, offset, rawText, error) -> quarantined.add(offset + ":" + rawText));
+
+        for (int n = 0; n < 200; n++) {
+            assertArrayEquals(new String[]{String.valueOf(n), "x"}, cr.readNext());
+        }
+        assertArrayEquals(null, cr.readNext());
+        assertEquals("[0:a,\"b]", quarantined.toString());
+    }
+
+    public void testCheckpointResume() throws IOException {
+        Path file = Files.createTempFile("kisscsv", ".csv");
+        try {
+            Files.write(file, "h1,h2\n\u00e9,\"1\r\n2\"\r\nb,3\nc,4".getBytes(StandardCharsets.UTF_8));
+
+            KissCheckpoint checkpoint;
+            try (KissReader cr = KissReader.open(file, StandardCharsets.UTF_8, new KissParser())) {
+                assertArrayEquals(new String[]{"h1", "h2"}, cr.readNext());
+                assertArrayEquals(new String[]{"\u00e9", "1\r\n2"}, cr.readNext());
+                checkpoint = KissCheckpoint.parse(cr.checkpoint().toString());
+            }
+            assertEquals(new KissCheckpoint(17, 3), checkpoint);
+
+            // char offsets over a Reader would seek into the middle of a record
+            KissReader overChars = new KissReader(new KissInput(new StringReader("\u00e9,1\n")), new KissParser());
+            assertArrayEquals(new String[]{"\u00e9", "1"}, overChars.readNext());
+            try {
+                overChars.checkpoint();
+                fail("Should not checkpoint char offsets");
+            } catch (IllegalStateException ex) {
+                // resume needs a byte position
+            }
+
+            try (KissReader cr = KissReader.resume(file, StandardCharsets.UTF_8, new KissParser(), checkpoint)) {
+                assertArrayEquals(new String[]{"b", "3"}, cr.readNext());
+                assertEquals(new KissCheckpoint(21, 4), cr.checkpoint());
+                assertArrayEquals(new String[]{"c", "4"}, cr.readNext());
+                assertArrayEquals(null, cr.readNext());
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    public void testFollower() throws Exception {
+        Path dir = Files.createTempDirectory("kisscsv");
+        Path file = dir.resolve("log.csv");
+        try (KissFollower follower = new KissFollower(file, StandardCharsets.UTF_8, new KissParser())) {
+            assertNull(follower.poll());
+
+            Files.write(file, "1,a\n2,\"b\n".getBytes(StandardCharsets.UTF_8));
+            assertArrayEquals(new String[]{"1", "a"}, follower.poll());
+            // the second record is not complete yet
+            assertNull(follower.poll());
+            assertEquals(new KissCheckpoint(4, 2), follower.checkpoint());
+
+            Files.write(file, "c\"\n3,d".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+            assertArrayEquals(new String[]{"2", "b\nc"}, follower.poll(1, TimeUnit.SECONDS));
+            assertNull(follower.poll());
+
+            // rotation delivers the final record of the old file first
+            Files.move(file, dir.resolve("log.csv.1"));
+            Files.write(file, "4,e\n".getBytes(StandardCharsets.UTF_8));
+            assertArrayEquals(new String[]{"3", "d"}, follower.poll(1, TimeUnit.SECONDS));
+            assertArrayEquals(new String[]{"4", "e"}, follower.poll(1, TimeUnit.SECONDS));
+            assertEquals(new KissCheckpoint(4, 2), follower.checkpoint());
+
+            // truncation starts again from the beginning
+            Files.write(file, "5\n".getBytes(StandardCharsets.UTF_8));
+            assertArrayEquals(new String[]{"5"}, follower.poll(1, TimeUnit.SECONDS));
+        } finally {
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(dir.resolve("log.csv.1"));
+            Files.delete(dir);
+        }
+    }
+
+    public void testFollowerSkipsMalformed() throws Exception {
+        Path file = Files.createTempFile("kisscsv", ".csv");
+        try (KissFollower follower = new KissFollower(file, StandardCharsets.UTF_8, new KissParser())) {
+            Files.write(file, "1,a\n\"x\"y,3\n".getBytes(StandardCharsets.UTF_8));
+            assertArrayEquals(new String[]{"1", "a"}, follower.poll());
+            try {
+                follower.poll();
+                fail("Should report the malformed record");
+            } catch (KissException ex) {
+                assertTrue(ex.getMessage().endsWith("(rec no. 2)"));
+            }
+            assertEquals(new KissCheckpoint(11, 3), follower.checkpoint());
+            assertNull(follower.poll());
+
+            Files.write(file, "5,e\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+            assertArrayEquals(new String[]{"5", "e"}, follower.poll());
+            assertNull(follower.poll());
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    public enum Side {
+        BUY, SELL
+    }
+
+    public static class Trade {
+
+        private String symbol;
+        private long quantity;
+        private double price;
+        private Side side;
+        private boolean settled;
+        int venue;
+
+        public String getSymbol() {
+            return symbol;
+        }
+
+        public void setSymbol(String symbol) {
+            this.symbol = symbol;
+        }
+
+        public long getQuantity() {
+            return quantity;
+        }
+
+        public void setQuantity(long quantity) {
+            this.quantity = quantity;
+        }
+
+        public double getPrice() {
+            return price;
+        }
+
+        public void setPrice(double price) {
+            this.price = price;
+        }
+
+        public Side getSide() {
+            return side;
+        }
+
+        public void setSide(Side side) {
+            this.side = side;
+        }
+
+        public boolean isSettled() {
+            return settled;
+        }
+    }
+
+    public static class Account {
+
+        private final String region = "EU";
+        private String owner;
+
+        public String getRegion() {
+            return region;
+        }
+
+        public String getOwner() {
+            return owner;
+        }
+
+        public void setOwner(String owner) {
+            this.owner = owner;
+        }
+    }
+
+    public void testFollowerGivesUpOnStrayQuote() throws Exception {
+        Path file = Files.createTempFile("kisscsv", ".csv");
+        try (KissFollower follower = new KissFollower(file, StandardCharsets.UTF_8, new KissParser())) {
+            StringBuilder data = new StringBuilder("a,\"b\n");
+            int rows = KissFollower.MAX_PENDING / 8;
+            for (int n = 0; n < rows; n++) {
+                data.append(n).append(",x\n");
+            }
+            Files.write(file, data.toString().getBytes(StandardCharsets.UTF_8));
+            String[] record = null;
+            try {
+                while ((record = follower.poll()) == null) {
+                    // read until the held back bytes are given up on
+                }
+                fail("Should report the record with the stray quote");
+            } catch (KissException ex) {
+                assertTrue(ex.getMessage().endsWith("(rec no. 1)"));
+            }
+            int delivered = 0;
+            while ((record = follower.poll()) != null) {
+                assertEquals(String.valueOf(delivered++), record[0]);
+            }
+            assertEquals(rows, delivered);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    public void testBinder() {
+        String data = "Symbol,Quantity,Price,Side,Settled,Venue,Comment\n"
+            + "IBM,100,1.5,BUY,true,7,first\n"
+            + "\"SAP, AG\",-5,,SELL,false,,\n";
+        KissReader cr = new KissReader(new StringReader(data));
+        KissBinder<Trade> binder = KissBinder.byHeader(Trade.class, cr.readNext());
+
+        Trade t = binder.readNext(cr);
+        assertEquals("IBM", t.getSymbol());
+        assertEquals(100, t.getQuantity());
+        assertEquals(1.5, t.getPrice(), 0);
+        assertEquals(Side.BUY, t.getSide());
+        assertTrue(t.isSettled());
+        assertEquals(7, t.venue);
+
+        Trade t2 = binder.bind(new String[]{"SAP, AG", "-5", "", "SELL", "false", "", ""});
+        assertEquals(-5, t2.getQuantity());
+        assertNull(binder.readNext(new KissReader(new StringReader(""))));
+
+        StringWriter sw = new StringWriter();
+        try (KissWriter cw = new KissWriter(sw)) {
+            cw.writeNext(binder.getHeader());
+            binder.writeNext(cw, t);
+            binder.writeNext(cw, binder.readNext(cr));
+        }
+        assertEquals("symbol,quantity,price,side,settled,venue,\n"
+            + "IBM,100,1.5,BUY,true,7,\n"
+            + "\"SAP, AG\",-5,0.0,SELL,false,0,\n", sw.toString());
+        assertNull(binder.readNext(cr));
+
+        try {
+            binder.bind(new String[]{"X", "lots"});
+            fail("Should not convert 'lots' to a long");
+        } catch (KissException ex) {
+            assertEquals("Cannot convert 'lots' for quantity (column 1)", ex.getMessage());
+        }
+        try {
+            binder.bind(new String[]{"X", "007"});
+            fail("Should read integers as the schema does");
+        } catch (KissException ex) {
+            assertEquals("Cannot convert '007' for quantity (column 1)", ex.getMessage());
+        }
+    }
+
+    public void testBinderSkipsFinalProperty() {
+        KissBinder<Account> binder = KissBinder.byHeader(Account.class, "Owner", "Region");
+        Account a = binder.bind(new String[]{"Jo", "US"});
+        assertEquals("Jo", a.getOwner());
+        assertEquals("EU", a.getRegion());
+        StringWriter sw = new StringWriter();
+        try (KissWriter cw = new KissWriter(sw)) {
+            binder.writeNext(cw, a);
+        }
+        assertEquals("Jo,EU\n", sw.toString());
+
+        try {
+            KissBinder.byColumns(Account.class, "owner", "region");
+            fail("Should not bind a final field by name");
+        } catch (IllegalArgumentException ex) {
+            assertEquals("Property region cannot be set", ex.getMessage());
+        }
+    }
+
+    public void testColumnarCache() throws IOException {
+        Path dir = Files.createTempDirectory("kisscsv");
+        Path file = dir.resolve("ref.csv");
+        Path sidecar = dir.resolve("ref.csv" + KissColumnarCache.SUFFIX);
+        try {
+            StringBuilder data = new StringBuilder("id,code,name\n");
+            for (int n = 0; n < 100; n++) {
+                data.append(n).append(',').append(n % 3 == 0 ? "A" : "B").append(",\"name, ").append(n).append("\"\n");
+            }
+            data.append("007,A\n");
+            Files.write(file, data.toString().getBytes(StandardCharsets.UTF_8));
+            List<String[]> expected = new KissReader(new StringReader(data.toString())).readAll();
+
+            KissColumnarCache first = KissColumnarCache.load(file, StandardCharsets.UTF_8, new KissParser());
+            assertTrue(Files.exists(sidecar));
+            long written = Files.getLastModifiedTime(sidecar).toMillis();
+            assertEquals(KissColumnarCache.ColumnType.STRING, first.getColumnType(0));
+            assertEquals(KissColumnarCache.ColumnType.DICTIONARY, first.getColumnType(1));
+
+            KissColumnarCache cache = KissColumnarCache.load(file, StandardCharsets.UTF_8, new KissParser());
+            assertEquals(written, Files.getLastModifiedTime(sidecar).toMillis());
+            assertEquals(102, cache.getRecordCount());
+            assertEquals("007", cache.getString(101, 0));
+            assertNull(cache.getString(101, 2));
+            assertEquals(2, cache.getFieldCount(101));
+            assertEquals("A", cache.getString(100, 1));
+            try {
+                cache.getFieldCount(102);
+                fail("Should not read past the field counts");
+            } catch (IndexOutOfBoundsException ex) {
+                // past the last record
+            }
+            List<String[]> found = cache.reader().readAll();
+            assertEquals(expected.size(), found.size());
+            for (int n = 0; n < expected.size(); n++) {
+                assertArrayEquals(expected.get(n), found.get(n));
+            }
+
+            // a truncated snapshot is written again rather than read past its end
+            byte[] snapshot = Files.readAllBytes(sidecar);
+            Files.write(sidecar, Arrays.copyOf(snapshot, snapshot.length - 10));
+            KissColumnarCache rebuilt = KissColumnarCache.load(file, StandardCharsets.UTF_8, new KissParser());
+            assertEquals("name, 99", rebuilt.getString(100, 2));
+            assertTrue(Arrays.equals(snapshot, Files.readAllBytes(sidecar)));
+            try (DirectoryStream<Path> left = Files.newDirectoryStream(dir)) {
+                int files = 0;
+                for (Path ignored : left) {
+                    files++;
+                }
+                assertEquals(2, files);
+            }
+        } finally {
+            Files.deleteIfExists(sidecar);
+            Files.deleteIfExists(file);
+            Files.delete(dir);
+        }
+    }
+
+    public void testColumnarCacheWideFile() throws IOException {
+        Path dir = Files.createTempDirectory("kisscsv");
+        Path file = dir.resolve("wide.csv");
+        Path sidecar = dir.resolve("wide.csv" + KissColumnarCache.SUFFIX);
+        try {
+            // more columns than a process usually has open files
+            StringBuilder data = new StringBuilder();
+            for (int r = 0; r < 5; r++) {
+                for (int c = 0; c < 2000; c++) {
+                    data.append(c == 0 ? "" : ",").append(r == 4 && c == 1999 ? "last" : Integer.toString(r * c));
+                }
+                data.append('\n');
+            }
+            Files.write(file, data.toString().getBytes(StandardCharsets.UTF_8));
+
+            KissColumnarCache cache = KissColumnarCache.load(file, StandardCharsets.UTF_8, new KissParser());
+            assertEquals(5, cache.getRecordCount());
+            assertEquals(2000, cache.getColumnCount());
+            assertEquals(2000, cache.getFieldCount(4));
+            assertEquals(3 * 1998L, cache.getLong(3, 1998));
+            assertEquals("last", cache.getString(4, 1999));
+            assertEquals("5997", cache.getString(3, 1999));
+            try (DirectoryStream<Path> left = Files.newDirectoryStream(dir)) {
+                int files = 0;
+                for (Path ignored : left) {
+                    files++;
+                }
+                assertEquals(2, files);
+            }
+        } finally {
+            Files.deleteIfExists(sidecar);
+            Files.deleteIfExists(file);
+            Files.delete(dir);
+        }
+    }
+
+    public void testSortSpillsRuns() throws IOException {
+        Path dir = Files.createTempDirectory("kisscsv");
+        try {
+            StringBuilder data = new StringBuilder();
+            List<String[]> expected = new ArrayList<>();
+            for (int n = 0; n < 500; n++) {
+                String[] record = {String.valueOf((n * 37) % 101), "v " + n, n % 7 == 0 ? "multi\nline, \"q\"" : ""};
+                expected.add(record);
+            }
+            StringWriter in = new StringWriter();
+            KissWriter kw = new KissWriter(in);
+            expected.forEach(kw::writeNext);
+            kw.flush();
+            // stable: the input order is kept for equal keys
+            expected.sort(KissSorter.byColumns(Comparator.comparing(Integer::valueOf), 0));
+
+            KissSorter sorter = new KissSorter(new KissParser(), KissSorter.byColumns(Comparator.comparing(Integer::valueOf), 0), 4096, dir);
+            StringWriter out = new StringWriter();
+            assertEquals(500, sorter.sort(new StringReader(in.toString()), out));
+            List<String[]> found = new KissReader(new StringReader(out.toString())).readAll();
+            assertEquals(expected.size(), found.size());
+            for (int n = 0; n < expected.size(); n++) {
+                assertArrayEquals(expected.get(n), found.get(n));
+            }
+            try (DirectoryStream<Path> left = Files.newDirectoryStream(dir)) {
+                assertFalse(left.iterator().hasNext());
+            }
+
+            // about 20 runs merged 3 at a time take passes through longer runs
+            KissSorter narrow = new KissSorter(new KissParser(), KissSorter.byColumns(Comparator.comparing(Integer::valueOf), 0), 4096, dir, 3);
+            out = new StringWriter();
+            assertEquals(500, narrow.sort(new StringReader(in.toString()), out));
+            found = new KissReader(new StringReader(out.toString())).readAll();
+            assertEquals(expected.size(), found.size());
+            for (int n = 0; n < expected.size(); n++) {
+                assertArrayEquals(expected.get(n), found.get(n));
+            }
+            try (DirectoryStream<Path> left = Files.newDirectoryStream(dir)) {
+                assertFalse(left.iterator().hasNext());
+            }
+
+            // a read error while a run is spilling leaves no run behind
+            Reader failing = new Reader() {
+                private final StringReader data = new StringReader(in.toString());
+
+                @Override
+                public int read(char[] cbuf, int off, int len) throws IOException {
+                    int n = data.read(cbuf, off, Math.min(len, 256));
+                    if (n == -1) {
+                        throw new IOException("disk gone");
+                    }
+                    return n;
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+            try {
+                sorter.sort(failing, new StringWriter());
+                fail("Should pass on the read error");
+            } catch (KissException ex) {
+                assertTrue(ex.getMessage().contains("disk gone"));
+            }
+            try (DirectoryStream<Path> left = Files.newDirectoryStream(dir)) {
+                assertFalse(left.iterator().hasNext());
+            }
+
+            try {
+                new KissSorter(new KissParser(',', (Character) null), KissSorter.byColumns(0))
+                    .sort(new StringReader("b,say \"hi\"\n"), new StringWriter());
+                fail("Should not sort without a quote character");
+            } catch (IllegalArgumentException ex) {
+                // quoting would change the data
+            }
+        } finally {
+            Files.delete(dir);
+        }
+    }
+
+    public void testAggregateChunks() throws IOException {
+        Path file = Files.createTempFile("kisscsv", ".csv");
+        try {
+            StringBuilder data = new StringBuilder("key,amount\n");
+            for (int n = 0; n < 300; n++) {
+                data.append(n % 3 == 0 ? "\"a,\nb\"" : "k" + n % 5).append(',').append(n % 4 == 0 ? "" : n + ".5").append('\n');
+            }
+            data.append("k1,-20\nk9");
+            Files.write(file, data.toString().getBytes(StandardCharsets.UTF_8));
+
+            KissAggregator serial = new KissAggregator(new KissParser(), 0, 1)
+                .aggregate(new KissReader(new StringReader(data.toString()), 1));
+            KissAggregator parallel = new KissAggregator(new KissParser(), 0, 1)
+                .aggregate(file, StandardCharsets.UTF_8, 1, 64);
+            assertEquals(7, serial.size());
+            assertEquals(serial.size(), parallel.size());
+            for (int g = 0; g < serial.size(); g++) {
+                int p = parallel.indexOf(serial.getKey(g));
+                assertEquals(serial.getCount(g), parallel.getCount(p));
+                assertEquals(serial.getSum(g), parallel.getSum(p), 1e-9);
+                assertEquals(serial.getMin(g), parallel.getMin(p), 0);
+                assertEquals(serial.getMax(g), parallel.getMax(p), 0);
+            }
+            int ab = parallel.indexOf("a,\nb");
+            assertEquals(100, parallel.getCount(ab));
+            assertEquals(75, parallel.getValueCount(ab));
+            assertEquals(-20.0, parallel.getMin(parallel.indexOf("k1")), 0);
+            assertTrue(Double.isNaN(parallel.getMax(parallel.indexOf("k9"))));
+
+            Files.write(file, (data + ",oops\n").getBytes(StandardCharsets.UTF_8));
+            try {
+                new KissAggregator(new KissParser(), 0, 1).aggregate(file, StandardCharsets.UTF_8, 1, 64);
+                fail("Expected a KissException");
+            } catch (KissException ex) {
+                assertEquals("Cannot aggregate 'oops' (column 1) (rec no. 303)", ex.getMessage());
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    public void testAggregateExactLongs() throws IOException {
+        Path file = Files.createTempFile("kisscsv", ".csv");
+        try {
+            StringBuilder data = new StringBuilder();
+            for (int n = 0; n < 100; n++) {
+                // 2^53 + 1 is not a double
+                data.append("big,9007199254740993\nhuge,").append(Long.MAX_VALUE).append("\nmixed,").append(n % 2 == 0 ? "1" : "0.5").append('\n');
+            }
+            Files.write(file, data.toString().getBytes(StandardCharsets.UTF_8));
+
+            KissAggregator serial = new KissAggregator(new KissParser(), 0, 1)
+                .aggregate(new KissReader(new StringReader(data.toString())));
+            KissAggregator parallel = new KissAggregator(new KissParser(), 0, 1)
+                .aggregate(file, StandardCharsets.UTF_8, 0, 256);
+            for (KissAggregator a : Arrays.asList(serial, parallel)) {
+                int big = a.indexOf("big");
+                assertTrue(a.isIntegral(big));
+                assertEquals(900719925474099300L, a.getLongSum(big));
+                assertFalse(a.isIntegral(a.indexOf("huge")));
+                assertEquals(100 * (double) Long.MAX_VALUE, a.getSum(a.indexOf("huge")), 1e6);
+                assertFalse(a.isIntegral(a.indexOf("mixed")));
+                assertEquals(75.0, a.getSum(a.indexOf("mixed")), 0);
+
+                StringWriter out = new StringWriter();
+                KissWriter kw = new KissWriter(out);
+                a.writeTo(kw);
+                kw.flush();
+                assertTrue(out.toString().startsWith("big,100,900719925474099300,9007199254740993,9007199254740993\n"));
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    public void testSchemaSample() throws IOException {
+        Path file = Files.createTempFile("kisscsv", ".csv");
+        Path sidecar = file.resolveSibling(file.getFileName() + KissColumnarCache.SUFFIX);
+        try {
+            StringBuilder data = new StringBuilder("id,price,active,day,code,note\n");
+            for (int n = 0; n < 2000; n++) {
+                data.append(n - 5).append(',').append(n % 2 == 0 ? n + ".25" : "1e3").append(',')
+                    .append(n % 3 == 0 ? "TRUE" : "false").append(",2024-02-").append(10 + n % 19).append(',')
+                    .append("c").append(n % 10).append(',').append(n % 5 == 0 ? "" : "\"x,\ny " + n + "\"").append('\n');
+            }
+            Files.write(file, data.toString().getBytes(StandardCharsets.UTF_8));
+
+            KissSchema schema = KissSchema.sample(file, StandardCharsets.UTF_8, new KissParser(), 1, 1000);
+            assertEquals(1000, schema.getSampledRecords());
+            assertArrayEquals(new String[]{"id", "price", "active", "day", "code", "note"}, schema.getNames());
+            assertEquals(KissSchema.Type.LONG, schema.getColumn(0).getType());
+            assertEquals(long.class, schema.getColumn(0).getJavaType());
+            assertEquals(KissSchema.Type.DOUBLE, schema.getColumn(1).getType());
+            assertEquals(KissSchema.Type.BOOLEAN, schema.getColumn(2).getType());
+            assertEquals(KissSchema.Type.DATE, schema.getColumn(3).getType());
+            assertEquals(KissSchema.Type.STRING, schema.getColumn(5).getType());
+            assertTrue(schema.getColumn(5).isNullable());
+            assertEquals(200, schema.getColumn(5).getNullCount());
+            assertEquals(String.class, schema.getColumn(5).getJavaType());
+            assertEquals(10, schema.getColumn(4).getCardinality());
+            assertTrue(Math.abs(schema.getColumn(0).getCardinality() - 1000) < 20);
+            assertEquals(8, schema.getColumn(5).getMaxWidth());
+            assertEquals(KissColumnarCache.ColumnType.DICTIONARY, schema.getColumn(4).getCacheType());
+            assertEquals(KissColumnarCache.ColumnType.STRING, schema.getColumn(5).getCacheType());
+
+            // codes with leading zeros are neither longs nor doubles
+            KissSchema zips = KissSchema.sample(new KissReader(new StringReader("zip,n\n02134,0.5\n10001,-0.5\n")), 1, 10);
+            assertEquals(KissSchema.Type.STRING, zips.getColumn(0).getType());
+            assertEquals(KissSchema.Type.DOUBLE, zips.getColumn(1).getType());
+
+            KissSchema ranges = KissSchema.sampleRanges(file, StandardCharsets.UTF_8, new KissParser(), 1, 8, 512, 42);
+            assertTrue(ranges.getSampledRecords() > 0);
+            for (int c = 0; c < 5; c++) {
+                assertEquals(schema.getColumn(c).getType(), ranges.getColumn(c).getType());
+            }
+
+            KissColumnarCache cache = KissColumnarCache.load(file, StandardCharsets.UTF_8, new KissParser(), 1, schema);
+            assertEquals(KissColumnarCache.ColumnType.LONG, cache.getColumnType(0));
+            assertEquals(KissColumnarCache.ColumnType.DICTIONARY, cache.getColumnType(4));
+            assertEquals(2000, cache.getRecordCount());
+            assertEquals(-5, cache.getLong(0, 0));
+            assertArrayEquals(schema.getNames(), cache.getHeader(0));
+            KissReader cached = cache.reader();
+            assertArrayEquals(schema.getNames(), cached.readNext());
+            assertArrayEquals(new String[]{"-5", "0.25", "TRUE", "2024-02-10", "c0", ""}, cached.readNext());
+        } finally {
+            Files.deleteIfExists(sidecar);
+            Files.delete(file);
+        }
+    }
+
+    public void testSplitKeepsRecordsWhole() throws IOException {
+        Path dir = Files.createTempDirectory("kisscsv");
+        Path file = dir.resolve("data.csv");
+        List<Path> parts = new ArrayList<>();
+        try {
+            StringBuilder data = new StringBuilder("a,b\n");
+            for (int n = 0; n < 25; n++) {
+                data.append(n).append(",\"line\nbreak ").append(n).append("\"\n");
+            }
+            Files.write(file, data.toString().getBytes(StandardCharsets.UTF_8));
+            List<String[]> expected = new KissReader(new StringReader(data.toString())).readAll();
+            KissSplitter splitter = new KissSplitter(new KissParser());
+
+            parts = splitter.splitByRecords(file, dir, 10, 1);
+            assertEquals(3, parts.size());
+            assertEquals(dir.resolve("data-00001.csv"), parts.get(0));
+            List<String[]> found = new ArrayList<>();
+            for (Path part : parts) {
+                List<String[]> records = new KissReader(Files.newBufferedReader(part, StandardCharsets.UTF_8)).readAll();
+                assertArrayEquals(expected.get(0), records.get(0));
+                found.addAll(records.subList(1, records.size()));
+            }
+            assertEquals(25, found.size());
+            for (int n = 0; n < found.size(); n++) {
+                assertArrayEquals(expected.get(n + 1), found.get(n));
+            }
+
+            for (Path part : parts) {
+                Files.delete(part);
+            }
+            parts = splitter.splitBySize(file, dir, 100, 0);
+            StringBuilder joined = new StringBuilder();
+            for (Path part : parts) {
+                String text = new String(Files.readAllBytes(part), StandardCharsets.UTF_8);
+                assertTrue(text.endsWith("\"\n"));
+                joined.append(text);
+            }
+            assertEquals(data.toString(), joined.toString());
+        } finally {
+            for (Path part : parts) {
+                Files.deleteIfExists(part);
+            }
+            Files.delete(file);
+            Files.delete(dir);
+        }
+    }
+
+    public void testLookupJoin() {
+        String dimension = "NYSE,New York,\"USD, $\"\nLSE,London,GBP\nNYSE,Duplicate,X\nTSX\n";
+        KissLookup lookup = KissLookup.build(new KissReader(new StringReader(dimension)), 0);
+        assertEquals(3, lookup.size());
+        assertEquals(1, lookup.getDuplicateCount());
+        assertArrayEquals(new String[]{"NYSE", "New York", "USD, $"}, lookup.get("NYSE"));
+        assertNull(lookup.get("ASX"));
+
+        String facts = "1,LSE\n2,ASX\n3,NYSE\n4,TSX\n";
+        StringWriter inner = new StringWriter();
+        KissWriter kw = new KissWriter(inner);
+        assertEquals(3, lookup.join(new KissReader(new StringReader(facts)), 1, kw, false));
+        kw.flush();
+        assertEquals("1,LSE,London,GBP\n3,NYSE,New York,\"USD, $\"\n4,TSX,,\n", inner.toString());
+
+        StringWriter left = new StringWriter();
+        kw = new KissWriter(left);
+        lookup.join(new KissReader(new StringReader(facts)), 1, kw, true);
+        kw.flush();
+        assertTrue(left.toString().contains("\n2,ASX,,\n"));
+    }
+
+    public void testValidateChunks() throws IOException {
+        Path file = Files.createTempFile("kisscsv", ".csv");
+        try {
+            StringBuilder data = new StringBuilder();
+            for (int n = 0; n < 200; n++) {
+                if (n == 50) {
+                    data.append("x,\"bad\"quote,z\n");
+                } else if (n == 120) {
+                    data.append("short,row\n");
+                } else {
+                    data.append(n).append(",\"\u00e9\n").append(n).append("\",c\n");
+                }
+            }
+            Files.write(file, data.toString().getBytes(StandardCharsets.UTF_8));
+            byte[] bytes = data.toString().getBytes(StandardCharsets.UTF_8);
+            long bad = data.substring(0, data.indexOf("x,")).getBytes(StandardCharsets.UTF_8).length;
+
+            KissValidator validator = new KissValidator(new KissParser(), 3, 10);
+            KissValidator.Report report = validator.validate(file, StandardCharsets.UTF_8, 100);
+            assertFalse(report.isValid());
+            assertEquals(199, report.getRecordCount());
+            assertEquals(198, report.getRecordCount(3));
+            assertEquals(1, report.getRecordCount(2));
+            assertEquals(3, report.getMaxFieldCount());
+            assertEquals(2, report.getErrorCount());
+            KissValidator.Problem first = report.getErrors().get(0);
+            assertEquals(51, first.getRecordNumber());
+            assertEquals(bad, first.getOffset());
+            assertEquals(121, report.getErrors().get(1).getRecordNumber());
+            assertEquals("Expected 3 fields but found 2", report.getErrors().get(1).getMessage());
+
+            KissValidator.Report serial = validator.validate(new KissInput(Channels.newChannel(new ByteArrayInputStream(bytes)), StandardCharsets.UTF_8));
+            assertEquals(report.toString(), serial.toString());
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    public void testValidateResyncsAfterStrayQuote() throws IOException {
+        Path file = Files.createTempFile("kisscsv", ".csv");
+        try {
+            StringBuilder data = new StringBuilder("a,\"b\n");
+            for (int n = 0; n < 2000; n++) {
+                data.append(n).append(",x\n");
+            }
+            Files.write(file, data.toString().getBytes(StandardCharsets.UTF_8));
+
+            KissValidator validator = new KissValidator(new KissParser(), 2, 10);
+            KissValidator.Report chunked = validator.validate(file, StandardCharsets.UTF_8, 256);
+            assertEquals(2000, chunked.getRecordCount());
+            assertEquals(1, chunked.getErrorCount());
+            assertEquals(0, chunked.getErrors().get(0).getOffset());
+
+            KissValidator.Report serial = validator.validate(new StringReader(data.toString()));
+            assertEquals(2000, serial.getRecordCount());
+            assertEquals(1, serial.getErrorCount());
+
+            // an open quote past the mark limit is reported, not read to the end
+            KissInput small = new KissInput(Channels.newChannel(new ByteArrayInputStream(
+                data.toString().getBytes(StandardCharsets.UTF_8))), StandardCharsets.UTF_8, 16, 64);
+            KissValidator.Report bounded = validator.validate(small);
+            assertEquals(2000, bounded.getRecordCount());
+            assertEquals(1, bounded.getErrorCount());
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    public void testChunkerCapsGrowthAfterStrayQuote() throws IOException {
+        Path file = Files.createTempFile("kisscsv", ".csv");
+        try {
+            StringBuilder data = new StringBuilder("a,\"b\n");
+            for (int n = 0; n < 2000; n++) {
+                data.append(n).append(",x\n");
+            }
+            Files.write(file, data.toString().getBytes(StandardCharsets.UTF_8));
+
+            long[] total = new long[1];
+            int[] largest = new int[1];
+            KissChunker.run(file, new KissParser(), 0, 64, (chunk, offset, skipLines, recordNumber) -> chunk.length,
+                length -> {
+                    total[0] += length;
+                    largest[0] = Math.max(largest[0], length);
+                });
+            assertEquals(data.length(), total[0]);
+            assertTrue(largest[0] <= 64 * KissChunker.MAX_GROWTH);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    public void testTransform() throws IOException {
+        String csv = "id,name,note\n1,\"Smith, J\",x\r y\n2,Lee\n";
+        KissTransform project = new KissTransform(new KissParser(), KissTransform.copy(0), KissTransform.copy(2));
+        StringWriter out = new StringWriter();
+        KissWriter kw = new KissWriter(out);
+        assertEquals(2, project.transform(new KissReader(new StringReader(csv)), kw, 1));
+        kw.flush();
+        // the lone carriage return was not quoted on the way in, but is on the way out
+        assertEquals("id,note\n1,\"x\r y\"\n2,\n", out.toString());
+
+        KissTransform reorder = new KissTransform(new KissParser(),
+            KissTransform.rename(1, "who"),
+            KissTransform.map(0, null, f -> "#" + f),
+            KissTransform.copy(1));
+        out = new StringWriter();
+        kw = new KissWriter(';', out);
+        reorder.transform(new KissReader(new StringReader(csv)), kw, 1);
+        kw.flush();
+        assertEquals("who;id;name\nSmith, J;#1;Smith, J\nLee;#2;Lee\n", out.toString());
+
+        Path file = Files.createTempFile("kisscsv", ".csv");
+        try {
+            StringBuilder data = new StringBuilder("id,name,note\n");
+            for (int n = 0; n < 20000; n++) {
+                data.append(n).append(",\"n;").append(n).append("\",\"a\nb\"\n");
+            }
+            Files.write(file, data.toString().getBytes(StandardCharsets.UTF_8));
+            StringWriter serial = new StringWriter();
+            kw = new KissWriter(';', serial);
+            reorder.transform(new KissReader(new StringReader(data.toString())), kw, 1);
+            kw.flush();
+            StringWriter parallel = new StringWriter();
+            assertEquals(20000, reorder.transform(file, StandardCharsets.UTF_8, 1, 4096, parallel, w -> new KissWriter(';', w)));
+            assertEquals(serial.toString(), parallel.toString());
+
+            // a stray quote fails in a capped chunk, not one holding the rest of the file
+            StringBuilder stray = new StringBuilder("id,name,note\n1,\"stray\n");
+            for (int n = 0; n < 20000; n++) {
+                stray.append(n).append(",a,b\n");
+            }
+            Files.write(file, stray.toString().getBytes(StandardCharsets.UTF_8));
+            try {
+                reorder.transform(file, StandardCharsets.UTF_8, 1, 4096, new StringWriter(), w -> new KissWriter(';', w));
+                fail("Should report the stray quote");
+            } catch (KissException ex) {
+                assertTrue(ex.getMessage().contains("rec no. 2"));
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    public void testGzipMultiMember() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (String member : new String[]{"A,B,\"C\r\n", "D\"\n1,2,3\n"}) {
+            try (GZIPOutputStream gz = new GZIPOutputStream(bytes)) {
+                gz.write(member.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+
+        KissReader cr = new KissReader(new KissGzipReader(new ByteArrayInputStream(bytes.toByteArray())));
+        assertArrayEquals(new String[]{"A", "B", "C\r\nD"}, cr.readNext());
+        assertArrayEquals(new String[]{"1", "2", "3"}, cr.readNext());
+        assertArrayEquals(null, cr.readNext());
+        cr.close();
+    }
+
+    public void testGzipBlockedMembers() throws IOException {
+        StringBuilder data = new StringBuilder();
+        for (int n = 0; n < 5000; n++) {
+            data.append(n).append(",\"name ").append(n).append("\"\n");
+        }
+        byte[] raw = data.toString().getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (int off = 0; off < raw.length; off += 1000) {
+            writeBgzfMember(bytes, raw, off, Math.min(1000, raw.length - off));
+        }
+        writeBgzfMember(bytes, raw, 0, 0);
+
+        // tiny buffers so the parser crosses many buffer and member boundaries
+        KissReader cr = new KissReader(new KissGzipReader(
+            new ByteArrayInputStream(bytes.toByteArray()), StandardCharsets.UTF_8, 7, 2));
+        for (int n = 0; n < 5000; n++) {
+            assertArrayEquals(new String[]{String.valueOf(n), "name " + n}, cr.readNext());
+        }
+        assertArrayEquals(null, cr.readNext());
+        cr.close();
+
+        // a member claiming to inflate to 2GB is rejected before anything is allocated
+        ByteArrayOutputStream corrupt = new ByteArrayOutputStream();
+        writeBgzfMember(corrupt, raw, 0, 1000);
+        byte[] member = corrupt.toByteArray();
+        member[member.length - 1] = 0x7F;
+        KissReader bad = new KissReader(new KissGzipReader(new ByteArrayInputStream(member), StandardCharsets.UTF_8));
+        try {
+            bad.readNext();
+            fail("Should reject the inflated size");
+        } catch (KissException ex) {
+            Throwable cause = ex;
+            while (cause != null && !(cause instanceof ZipException)) {
+                cause = cause.getCause();
+            }
+            assertNotNull(cause);
+        }
+    }
+
+    private static void writeBgzfMember(ByteArrayOutputStream out, byte[] raw, int off, int len) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        deflater.setInput(raw, off, len);
+        deflater.finish();
+        byte[] compressed = new byte[len + 64];
+        int clen = deflater.deflate(compressed);
+        deflater.end();
+        CRC32 crc = new CRC32();
+        crc.update(raw, off, len);
+        int blockSize = 18 + clen + 8;
+        out.write(new byte[]{0x1F, (byte) 0x8B, 8, 4, 0, 0, 0, 0, 0, (byte) 0xFF, 6, 0, 'B', 'C', 2, 0,
+            (byte) (blockSize - 1), (byte) ((blockSize - 1) >> 8)}, 0, 18);
+        out.write(compressed, 0, clen);
+        long[] trailer = {crc.getValue(), len};
+        for (long v : trailer) {
+            out.write((int) v);
+            out.write((int) (v >> 8));
+            out.write((int) (v >> 16));
+            out.write((int) (v >> 24));
+        }
+    }
+}